@@ -0,0 +1,12 @@
+-- Changes of each shard of jdbc.shards, run on every shard after 0001_create.sql
+
+use test;
+
+-- With the HASH strategy every shard generates only his own ids, e.g. the shard 0 of 4 generates 1, 5, 9...
+-- Set the offset of each shard, from 1, in the server configuration too so it survives a restart
+SET GLOBAL auto_increment_increment = 4;
+SET GLOBAL auto_increment_offset = 1;
+
+-- The contacts of a user are stored in his shard but the contact may live in other shard
+ALTER TABLE `usercontact`
+    DROP FOREIGN KEY `usercontact_ibfk_2`;
@@ -0,0 +1,113 @@
+package example.benchmark;
+
+import example.dao.DaoFactory;
+import example.dao.UserDao;
+import example.jdbc.JDBCSession;
+import example.jdbc.JDBCUtils;
+import example.model.User;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+
+/**
+ * In-memory database shared by all the threads of a benchmark, created again for each trial with the
+ * amount of users of the parameters.
+ */
+@State(Scope.Benchmark)
+public class BenchmarkDatabase {
+
+    private static final String SCHEMA = "schema.sql";
+    private static final int CONTACTS_PER_USER = 10;
+
+    @Param({"100", "10000"})
+    public int users;
+
+    private int[] ids;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        try (Connection connection = JDBCUtils.openConnection(); Statement statement = connection.createStatement()) {
+            for (String sql : readSchema()) {
+                statement.execute(sql);
+            }
+        }
+
+        try (JDBCSession session = JDBCSession.open()) {
+            UserDao userDao = DaoFactory.buildUserDao();
+            List<User> created = new ArrayList<>(users);
+            for (int i = 0; i < users; i++) {
+                created.add(new User("User " + i, "user" + i + "@test.com"));
+            }
+
+            session.onTransaction(() -> {
+                userDao.saveAll(created);
+
+                Random random = new Random(users);
+                for (User user : created) {
+                    List<User> contacts = new ArrayList<>(CONTACTS_PER_USER);
+                    for (int i = 0; i < CONTACTS_PER_USER && i < users - 1; i++) {
+                        User contact = created.get(random.nextInt(users));
+                        if (contact != user && !contacts.contains(contact)) {
+                            contacts.add(contact);
+                        }
+                    }
+                    userDao.addContacts(user, contacts);
+                }
+            });
+
+            ids = created.stream().mapToInt(User::getId).toArray();
+        }
+    }
+
+    /**
+     * Id of a random existing user
+     */
+    public int randomId() {
+        return ids[ThreadLocalRandom.current().nextInt(ids.length)];
+    }
+
+    /**
+     * Random existing user with only his id
+     */
+    public User randomUser() {
+        User user = new User();
+        user.setId(randomId());
+        return user;
+    }
+
+    private static List<String> readSchema() {
+        try (InputStream is = BenchmarkDatabase.class.getClassLoader().getResourceAsStream(SCHEMA);
+             BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8))) {
+            String script = reader.lines()
+                    .filter(line -> !line.trim().startsWith("--"))
+                    .collect(Collectors.joining("\n"));
+
+            List<String> statements = new ArrayList<>();
+            for (String sql : script.split(";")) {
+                if (!sql.trim().isEmpty()) {
+                    statements.add(sql.trim());
+                }
+            }
+            return statements;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package example.benchmark;
+
+import example.dao.DaoFactory;
+import example.dao.UserDao;
+import example.jdbc.JDBCSession;
+import example.model.User;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the main paths of the User Dao.
+ * <p>
+ * Each thread keeps his session open during the trial, the entities loaded by the session are cleared
+ * before each operation so the identity map does not hide the cost of the queries.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class DaoBenchmark {
+
+    private JDBCSession session;
+    private UserDao userDao;
+
+    /**
+     * The database is a parameter so it is set up before opening the session of the thread
+     */
+    @Setup(Level.Trial)
+    public void setUp(BenchmarkDatabase database) {
+        session = JDBCSession.open();
+        userDao = DaoFactory.buildUserDao();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        session.close();
+    }
+
+    @Benchmark
+    public Optional<User> get(BenchmarkDatabase database) {
+        session.clearEntities();
+        return userDao.get(database.randomId());
+    }
+
+    @Benchmark
+    public List<User> getAll() {
+        session.clearEntities();
+        return userDao.getAll();
+    }
+
+    @Benchmark
+    public Set<User> getContacts(BenchmarkDatabase database) {
+        session.clearEntities();
+        return userDao.getContacts(database.randomUser());
+    }
+
+    @Benchmark
+    public User save() {
+        session.clearEntities();
+        User user = new User("New user", "new@test.com");
+        userDao.save(user);
+        return user;
+    }
+}
@@ -0,0 +1,68 @@
+package example.benchmark;
+
+import example.jdbc.JDBCSession;
+import example.jdbc.JDBCUtils;
+import example.jdbc.RowMapper;
+import example.jdbc.SqlThrowableFunction;
+import example.model.User;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of mapping all the users reading the columns by name with getAllValues, against resolving the
+ * column indexes once per result set with getAllRows.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class JDBCUtilsBenchmark {
+
+    private static final String SELECT_ALL_QUERY = "SELECT idUser, name, email FROM user";
+
+    private static final SqlThrowableFunction<ResultSet, User> BY_NAME = rs -> {
+        User user = new User(rs.getString("name"), rs.getString("email"));
+        user.setId(rs.getInt("idUser"));
+        return user;
+    };
+
+    private static final RowMapper<User> BY_INDEX = resultSet -> {
+        int[] columns = JDBCUtils.columnIndexes(resultSet, "idUser", "name", "email");
+        return rs -> {
+            User user = new User(rs.getString(columns[1]), rs.getString(columns[2]));
+            user.setId(rs.getInt(columns[0]));
+            return user;
+        };
+    };
+
+    private JDBCSession session;
+
+    /**
+     * The database is a parameter so it is set up before opening the session of the thread
+     */
+    @Setup(Level.Trial)
+    public void setUp(BenchmarkDatabase database) {
+        session = JDBCSession.open();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        session.close();
+    }
+
+    @Benchmark
+    public List<User> getAllValuesByName() throws SQLException {
+        return JDBCUtils.getAllValues(session.prepareStatement(SELECT_ALL_QUERY).executeQuery(), BY_NAME);
+    }
+
+    @Benchmark
+    public List<User> getAllRowsByIndex() throws SQLException {
+        return JDBCUtils.getAllRows(session.prepareStatement(SELECT_ALL_QUERY).executeQuery(), BY_INDEX);
+    }
+}
@@ -0,0 +1,24 @@
+package example.benchmark;
+
+import example.jdbc.JDBCSession;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of opening and closing a session, that borrows and releases a pooled connection
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SessionBenchmark {
+
+    @Benchmark
+    public boolean openClose() {
+        try (JDBCSession session = JDBCSession.open()) {
+            return session.isClosed();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package example.benchmark;
+
+import example.dao.DaoFactory;
+import example.dao.UserDao;
+import example.dao.async.DaoExecutor;
+import example.jdbc.JDBCUtils;
+import example.jdbc.metrics.LatencyHistogram;
+import example.model.User;
+
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load test that sends many concurrent requests, each one reading a user and his contacts with his own
+ * detached session, first with a bounded executor of platform threads and then with a virtual thread
+ * per request. In both cases the amount of connections is bounded by the pool.
+ * <p>
+ * The virtual threads require running it on Java 21 or later, see the loadTest task.
+ */
+public class VirtualThreadLoadTest {
+
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws SQLException {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int poolSize = JDBCUtils.getConnectionPool().getMaxSize();
+
+        BenchmarkDatabase database = new BenchmarkDatabase();
+        database.users = 10_000;
+        database.setUp();
+
+        try (DaoExecutor executor = new DaoExecutor(poolSize, requests)) {
+            run("platform threads", executor, requests, database);
+        }
+
+        DaoExecutor virtualThreads;
+        try {
+            virtualThreads = DaoExecutor.virtualThreads();
+        } catch (UnsupportedOperationException e) {
+            System.out.println("Skipping the virtual threads: " + e.getMessage());
+            return;
+        }
+        try (DaoExecutor executor = virtualThreads) {
+            run("virtual threads", executor, requests, database);
+        }
+    }
+
+    /**
+     * Runs several rounds, the first ones warm up the JVM and the connections
+     */
+    private static void run(String name, DaoExecutor executor, int requests, BenchmarkDatabase database) {
+        for (int round = 1; round <= ROUNDS; round++) {
+            LatencyHistogram latency = new LatencyHistogram();
+            CompletableFuture<?>[] futures = new CompletableFuture<?>[requests];
+
+            long start = System.nanoTime();
+            for (int i = 0; i < requests; i++) {
+                long submitted = System.nanoTime();
+                futures[i] = executor.submitWithSession(session -> {
+                    UserDao userDao = DaoFactory.buildUserDao(session);
+                    User user = userDao.get(database.randomId()).orElseThrow(IllegalStateException::new);
+                    return userDao.getContacts(user);
+                }).whenComplete((result, e) -> latency.record(System.nanoTime() - submitted));
+            }
+            CompletableFuture.allOf(futures).join();
+            long elapsed = System.nanoTime() - start;
+
+            System.out.printf("%s round %d: %d requests in %d ms, %.0f requests/s, p50=%.3fms, p99=%.3fms, " +
+                            "max=%.3fms%n", name, round, requests, TimeUnit.NANOSECONDS.toMillis(elapsed),
+                    requests / (elapsed / 1e9), latency.getPercentileMillis(50), latency.getPercentileMillis(99),
+                    latency.getMaxMillis());
+        }
+    }
+}
@@ -0,0 +1,31 @@
+-- Adapted from sql/0001_create.sql for H2 in MySQL mode, without database, engine and collation
+
+DROP TABLE IF EXISTS `usercontact`;
+DROP TABLE IF EXISTS `useraddress`;
+DROP TABLE IF EXISTS `user`;
+
+CREATE TABLE `user`
+(
+    `idUser` int(11) NOT NULL AUTO_INCREMENT,
+    `name`   varchar(255) DEFAULT NULL,
+    `email`  varchar(255) DEFAULT NULL,
+    PRIMARY KEY (`idUser`)
+);
+
+CREATE TABLE `useraddress`
+(
+    `idUserAddress` int(11) NOT NULL AUTO_INCREMENT,
+    `idUser`        int(11) NOT NULL,
+    `address`       varchar(255) DEFAULT NULL,
+    PRIMARY KEY (`idUserAddress`),
+    FOREIGN KEY (idUser) REFERENCES user (idUser) ON DELETE CASCADE
+);
+
+CREATE TABLE `usercontact`
+(
+    `idUser`    int(11) NOT NULL,
+    `idContact` int(11) NOT NULL,
+    PRIMARY KEY (`idUser`, `idContact`),
+    FOREIGN KEY (idUser) REFERENCES user (idUser) ON DELETE CASCADE,
+    FOREIGN KEY (idContact) REFERENCES user (idUser) ON DELETE CASCADE
+);
@@ -0,0 +1,150 @@
+package example.bulk;
+
+import example.jdbc.JDBCSession;
+import example.jdbc.JDBCUtils;
+import example.jdbc.SimpleSQLException;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.function.Consumer;
+
+import static java.lang.String.format;
+
+/**
+ * Exports a table to a file streaming the rows of the result set straight to a FileChannel, so the
+ * table is never loaded in memory.
+ * <p>
+ * The rows are exported in the order of his id. Every jdbc.bulk.chunkSize rows the file is forced to
+ * disk and the last id completely written is saved in a checkpoint next to the file, so a failed export
+ * resumes after that id truncating the rows written after the checkpoint. The checkpoint is deleted
+ * when the export finishes.
+ */
+public class BulkExporter {
+
+    private static final String CHUNK_SIZE = "jdbc.bulk.chunkSize";
+    private static final String BUFFER_SIZE = "jdbc.bulk.bufferSize";
+
+    private final int checkpointRows;
+    private final int bufferSize;
+    private Consumer<BulkResult> progressListener = result -> {
+    };
+
+    /**
+     * Exporter configured with the jdbc.bulk properties
+     */
+    public BulkExporter() {
+        this(JDBCUtils.getIntProperty(CHUNK_SIZE, 5000), JDBCUtils.getIntProperty(BUFFER_SIZE, 64 * 1024));
+    }
+
+    /**
+     * Creates a new exporter
+     *
+     * @param checkpointRows rows between checkpoints
+     * @param bufferSize     bytes encoded before writing them to the file
+     */
+    public BulkExporter(int checkpointRows, int bufferSize) {
+        this.checkpointRows = checkpointRows;
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Listener called after each checkpoint with the rows exported and the throughput
+     */
+    public void setProgressListener(Consumer<BulkResult> progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * Exports all the rows of the table, resuming the previous export of the file if it has a checkpoint
+     *
+     * @param table  table to export
+     * @param format format of the file
+     * @param output file to write, it is replaced unless the export is resumed
+     * @return The rows exported by this run and the throughput
+     */
+    public BulkResult export(BulkTable table, BulkFormat format, Path output) {
+        Checkpoint checkpoint = new Checkpoint(output);
+        long[] resume = checkpoint.read();
+        long start = System.nanoTime();
+        long rows = 0;
+
+        try (FileChannel channel = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             JDBCSession session = JDBCSession.openDetached()) {
+            ChannelWriter out = new ChannelWriter(channel, bufferSize);
+            String select = format("SELECT %s FROM %s", String.join(", ", table.getColumns()), table.getTable());
+            PreparedStatement statement;
+
+            if (resume == null) {
+                channel.truncate(0);
+                statement = session.prepareStreamingStatement(select + " ORDER BY " + table.getOrderBy());
+                String header = format.header(table);
+                if (header != null) {
+                    out.write(header + "\n");
+                }
+            } else {
+                channel.truncate(resume[1]);
+                channel.position(resume[1]);
+                statement = session.prepareStreamingStatement(select + " WHERE " + table.getIdColumn() + " > ? " +
+                        "ORDER BY " + table.getOrderBy());
+                statement.setLong(1, resume[0]);
+            }
+
+            try (ResultSet resultSet = statement.executeQuery()) {
+                int columns = table.getColumns().size();
+                Object[] row = new Object[columns];
+                StringBuilder line = new StringBuilder(256);
+                Integer currentId = null;
+                long uncheckedRows = 0;
+
+                while (resultSet.next()) {
+                    for (int i = 0; i < columns; i++) {
+                        row[i] = read(resultSet, i + 1, table.getType(i));
+                    }
+
+                    // The rows of the previous id are complete, a resumed export can start after it
+                    Integer id = (Integer) row[0];
+                    if (currentId != null && !currentId.equals(id) && uncheckedRows >= checkpointRows) {
+                        out.flush();
+                        channel.force(false);
+                        checkpoint.save(currentId, out.position());
+                        uncheckedRows = 0;
+                        progressListener.accept(new BulkResult(table, rows, System.nanoTime() - start));
+                    }
+                    currentId = id;
+
+                    line.setLength(0);
+                    format.encode(table, row, line);
+                    out.write(line);
+                    rows++;
+                    uncheckedRows++;
+                }
+            }
+
+            out.flush();
+            channel.force(false);
+        } catch (SQLException e) {
+            throw new SimpleSQLException(e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        checkpoint.delete();
+        BulkResult result = new BulkResult(table, rows, System.nanoTime() - start);
+        progressListener.accept(result);
+        return result;
+    }
+
+    private static Object read(ResultSet resultSet, int column, Class<?> type) throws SQLException {
+        if (type == String.class) {
+            return resultSet.getString(column);
+        }
+        int value = resultSet.getInt(column);
+        return resultSet.wasNull() ? null : value;
+    }
+}
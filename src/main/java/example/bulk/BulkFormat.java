@@ -0,0 +1,379 @@
+package example.bulk;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+
+import static java.lang.String.format;
+
+/**
+ * Formats of the bulk files, with one record per row of the table.
+ * <ul>
+ * <li>CSV: a header with the columns and the values in the same order. A NULL is an empty value and an
+ * empty string is "", the values with separators, quotes or line breaks are quoted</li>
+ * <li>NDJSON: a JSON object per line with a property per column, the missing properties are NULL</li>
+ * </ul>
+ */
+public enum BulkFormat {
+
+    CSV {
+        @Override
+        String header(BulkTable table) {
+            return String.join(",", table.getColumns());
+        }
+
+        @Override
+        void encode(BulkTable table, Object[] row, StringBuilder out) {
+            for (int i = 0; i < row.length; i++) {
+                if (i > 0) {
+                    out.append(',');
+                }
+                Object value = row[i];
+                if (value instanceof String) {
+                    appendCsvString((String) value, out);
+                } else if (value != null) {
+                    out.append(value);
+                }
+            }
+            out.append('\n');
+        }
+
+        @Override
+        Object[] parse(BulkTable table, String record) {
+            Object[] row = new Object[table.getColumns().size()];
+            int column = 0;
+            int i = 0;
+
+            while (true) {
+                String text;
+                if (i < record.length() && record.charAt(i) == '"') {
+                    StringBuilder value = new StringBuilder();
+                    i++;
+                    while (true) {
+                        if (i >= record.length()) {
+                            throw new IllegalArgumentException("Unclosed quote in the record: " + record);
+                        }
+                        char c = record.charAt(i++);
+                        if (c == '"') {
+                            if (i < record.length() && record.charAt(i) == '"') {
+                                value.append('"');
+                                i++;
+                            } else {
+                                break;
+                            }
+                        } else {
+                            value.append(c);
+                        }
+                    }
+                    text = value.toString();
+                } else {
+                    int end = record.indexOf(',', i);
+                    end = end < 0 ? record.length() : end;
+                    text = end == i ? null : record.substring(i, end);
+                    i = end;
+                }
+
+                if (column == row.length) {
+                    throw new IllegalArgumentException(format("The record has more than %d values: %s",
+                            row.length, record));
+                }
+                row[column] = table.convert(column, text);
+                column++;
+
+                if (i >= record.length()) {
+                    break;
+                }
+                if (record.charAt(i) != ',') {
+                    throw new IllegalArgumentException("Unexpected character after a quoted value: " + record);
+                }
+                i++;
+            }
+
+            if (column != row.length) {
+                throw new IllegalArgumentException(format("The record has %d values instead of %d: %s",
+                        column, row.length, record));
+            }
+            return row;
+        }
+
+        @Override
+        String readRecord(BufferedReader in) throws IOException {
+            String record = super.readRecord(in);
+            // A quoted value with line breaks continues in the next lines
+            while (record != null && countQuotes(record) % 2 == 1) {
+                String line = in.readLine();
+                if (line == null) {
+                    throw new IllegalArgumentException("Unclosed quote at the end of the file");
+                }
+                record = record + "\n" + line;
+            }
+            return record;
+        }
+    },
+
+    NDJSON {
+        @Override
+        String header(BulkTable table) {
+            return null;
+        }
+
+        @Override
+        void encode(BulkTable table, Object[] row, StringBuilder out) {
+            out.append('{');
+            for (int i = 0; i < row.length; i++) {
+                if (i > 0) {
+                    out.append(',');
+                }
+                appendJsonString(table.getColumns().get(i), out);
+                out.append(':');
+                Object value = row[i];
+                if (value instanceof String) {
+                    appendJsonString((String) value, out);
+                } else {
+                    out.append(value == null ? "null" : value.toString());
+                }
+            }
+            out.append("}\n");
+        }
+
+        @Override
+        Object[] parse(BulkTable table, String record) {
+            return new JsonRecordParser(table, record).parse();
+        }
+    };
+
+    /**
+     * Gets the first line of a file, null if the format has no header
+     */
+    abstract String header(BulkTable table);
+
+    /**
+     * Appends a row to the output ended with a line break
+     *
+     * @param table table of the row
+     * @param row   values of the columns, Integer, String or null
+     * @param out   output of the encoded row
+     */
+    abstract void encode(BulkTable table, Object[] row, StringBuilder out);
+
+    /**
+     * Parses a record read with readRecord
+     *
+     * @return The values of the columns of the table
+     * @throws IllegalArgumentException if the record is malformed
+     */
+    abstract Object[] parse(BulkTable table, String record);
+
+    /**
+     * Reads the next record skipping the empty lines
+     *
+     * @return The record or null at the end of the file
+     */
+    String readRecord(BufferedReader in) throws IOException {
+        String line;
+        do {
+            line = in.readLine();
+        } while (line != null && line.trim().isEmpty());
+        return line;
+    }
+
+    private static void appendCsvString(String value, StringBuilder out) {
+        boolean quote = value.isEmpty();
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+
+        if (!quote) {
+            out.append(value);
+            return;
+        }
+
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                out.append('"');
+            }
+            out.append(c);
+        }
+        out.append('"');
+    }
+
+    private static void appendJsonString(String value, StringBuilder out) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        out.append(format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        out.append('"');
+    }
+
+    private static int countQuotes(String record) {
+        int quotes = 0;
+        for (int i = 0; i < record.length(); i++) {
+            if (record.charAt(i) == '"') {
+                quotes++;
+            }
+        }
+        return quotes;
+    }
+
+    /**
+     * Parser of a flat JSON object with strings, numbers, booleans and nulls
+     */
+    private static final class JsonRecordParser {
+
+        private final BulkTable table;
+        private final String record;
+        private int position;
+
+        JsonRecordParser(BulkTable table, String record) {
+            this.table = table;
+            this.record = record;
+        }
+
+        Object[] parse() {
+            Object[] row = new Object[table.getColumns().size()];
+
+            expect('{');
+            if (peek() == '}') {
+                position++;
+            } else {
+                do {
+                    String name = readString();
+                    expect(':');
+                    String value = readValue();
+
+                    int column = table.getColumns().indexOf(name);
+                    if (column >= 0) {
+                        row[column] = table.convert(column, value);
+                    }
+                } while (next() == ',');
+                position--;
+                expect('}');
+            }
+
+            while (position < record.length() && Character.isWhitespace(record.charAt(position))) {
+                position++;
+            }
+            if (position != record.length()) {
+                throw malformed();
+            }
+            return row;
+        }
+
+        private String readValue() {
+            char c = peek();
+            if (c == '"') {
+                return readString();
+            }
+
+            int start = position;
+            while (position < record.length() && ",} \t".indexOf(record.charAt(position)) < 0) {
+                position++;
+            }
+            String literal = record.substring(start, position);
+            if (literal.isEmpty()) {
+                throw malformed();
+            }
+            return literal.equals("null") ? null : literal;
+        }
+
+        private String readString() {
+            expect('"');
+            StringBuilder value = new StringBuilder();
+            while (true) {
+                if (position >= record.length()) {
+                    throw malformed();
+                }
+                char c = record.charAt(position++);
+                if (c == '"') {
+                    return value.toString();
+                }
+                if (c != '\\') {
+                    value.append(c);
+                    continue;
+                }
+
+                if (position >= record.length()) {
+                    throw malformed();
+                }
+                char escaped = record.charAt(position++);
+                switch (escaped) {
+                    case 'n':
+                        value.append('\n');
+                        break;
+                    case 'r':
+                        value.append('\r');
+                        break;
+                    case 't':
+                        value.append('\t');
+                        break;
+                    case 'b':
+                        value.append('\b');
+                        break;
+                    case 'f':
+                        value.append('\f');
+                        break;
+                    case 'u':
+                        if (position + 4 > record.length()) {
+                            throw malformed();
+                        }
+                        value.append((char) Integer.parseInt(record.substring(position, position + 4), 16));
+                        position += 4;
+                        break;
+                    default:
+                        value.append(escaped);
+                }
+            }
+        }
+
+        private void expect(char expected) {
+            if (next() != expected) {
+                throw malformed();
+            }
+        }
+
+        private char next() {
+            char c = peek();
+            position++;
+            return c;
+        }
+
+        private char peek() {
+            while (position < record.length() && Character.isWhitespace(record.charAt(position))) {
+                position++;
+            }
+            if (position >= record.length()) {
+                throw malformed();
+            }
+            return record.charAt(position);
+        }
+
+        private IllegalArgumentException malformed() {
+            return new IllegalArgumentException(format("Malformed JSON record at %d: %s", position, record));
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package example.bulk;
+
+import example.jdbc.JDBCSession;
+import example.jdbc.JDBCUtils;
+import example.jdbc.SimpleSQLException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import static java.lang.String.format;
+
+/**
+ * Imports a file into a table with a pipeline of three stages:
+ * <ul>
+ * <li>A reader thread splits the file in chunks of jdbc.bulk.chunkSize records</li>
+ * <li>The chunks are parsed in parallel by jdbc.bulk.parseThreads threads</li>
+ * <li>The calling thread inserts the parsed chunks in the order of the file, each chunk in a transaction
+ * with multi-row INSERTs of jdbc.bulk.rowsPerInsert rows</li>
+ * </ul>
+ * At most jdbc.bulk.queueSize chunks wait for the writer, so the reader stops when the database is the
+ * bottleneck. After each chunk the amount of records imported is saved in a checkpoint next to the file,
+ * so a failed import resumes skipping them. The checkpoint is deleted when the import finishes.
+ * <p>
+ * The checkpoint is saved after the commit of his chunk, so a crash between both imports the chunk again
+ * when the import resumes. The INSERTs update the rows that already exist with the values of the file,
+ * so importing a chunk twice has the same result as importing it once.
+ * <p>
+ * The ids are imported as they are in the file, so the addresses and contacts keep their users.
+ */
+public class BulkImporter {
+
+    private static final String CHUNK_SIZE = "jdbc.bulk.chunkSize";
+    private static final String ROWS_PER_INSERT = "jdbc.bulk.rowsPerInsert";
+    private static final String PARSE_THREADS = "jdbc.bulk.parseThreads";
+    private static final String QUEUE_SIZE = "jdbc.bulk.queueSize";
+    // Max amount of parameters of a statement in MySQL
+    private static final int MAX_PARAMETERS = 65_535;
+
+    private static final Chunk END = new Chunk(Collections.emptyList());
+
+    private final int chunkSize;
+    private final int rowsPerInsert;
+    private final int parseThreads;
+    private final int queueSize;
+    private Consumer<BulkResult> progressListener = result -> {
+    };
+
+    /**
+     * Importer configured with the jdbc.bulk properties
+     */
+    public BulkImporter() {
+        this(JDBCUtils.getIntProperty(CHUNK_SIZE, 5000),
+                JDBCUtils.getIntProperty(ROWS_PER_INSERT, 500),
+                JDBCUtils.getIntProperty(PARSE_THREADS, Runtime.getRuntime().availableProcessors()),
+                JDBCUtils.getIntProperty(QUEUE_SIZE, Runtime.getRuntime().availableProcessors() * 2));
+    }
+
+    /**
+     * Creates a new importer
+     *
+     * @param chunkSize     records parsed together and inserted in a transaction
+     * @param rowsPerInsert rows of each INSERT
+     * @param parseThreads  threads that parse the chunks
+     * @param queueSize     max amount of chunks read and not inserted yet
+     */
+    public BulkImporter(int chunkSize, int rowsPerInsert, int parseThreads, int queueSize) {
+        if (chunkSize < 1 || rowsPerInsert < 1 || parseThreads < 1 || queueSize < 1) {
+            throw new IllegalArgumentException("The sizes of the import must be at least 1");
+        }
+        this.chunkSize = chunkSize;
+        this.rowsPerInsert = rowsPerInsert;
+        this.parseThreads = parseThreads;
+        this.queueSize = queueSize;
+    }
+
+    /**
+     * Listener called after each chunk with the rows imported and the throughput
+     */
+    public void setProgressListener(Consumer<BulkResult> progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * Imports all the records of the file, resuming the previous import of the file if it has a checkpoint
+     *
+     * @param table  table where the rows are inserted
+     * @param format format of the file
+     * @param input  file to import
+     * @return The rows imported by this run and the throughput
+     */
+    public BulkResult importFile(BulkTable table, BulkFormat format, Path input) {
+        Checkpoint checkpoint = new Checkpoint(input);
+        long[] resume = checkpoint.read();
+        long imported = resume == null ? 0 : resume[0];
+        long start = System.nanoTime();
+        long rows = 0;
+
+        AtomicInteger count = new AtomicInteger();
+        ExecutorService parsers = Executors.newFixedThreadPool(parseThreads, runnable -> {
+            Thread thread = new Thread(runnable, "jdbc-bulk-parse-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        BlockingQueue<CompletableFuture<Chunk>> queue = new ArrayBlockingQueue<>(queueSize);
+        AtomicBoolean cancelled = new AtomicBoolean();
+
+        long skip = imported;
+        Thread reader = new Thread(() -> read(table, format, input, skip, queue, parsers, cancelled),
+                "jdbc-bulk-reader");
+        reader.setDaemon(true);
+        reader.start();
+
+        try (JDBCSession session = JDBCSession.openDetached()) {
+            Chunk chunk;
+            while ((chunk = take(queue)) != END) {
+                List<Object[]> chunkRows = chunk.rows;
+                session.onTransaction(() -> insert(session, table, chunkRows));
+
+                rows += chunkRows.size();
+                imported += chunkRows.size();
+                checkpoint.save(imported);
+                progressListener.accept(new BulkResult(table, rows, System.nanoTime() - start));
+            }
+        } finally {
+            cancelled.set(true);
+            queue.clear();
+            parsers.shutdownNow();
+        }
+
+        checkpoint.delete();
+        return new BulkResult(table, rows, System.nanoTime() - start);
+    }
+
+    /**
+     * Reads the records of the file in chunks and queues their parsing in order
+     */
+    private void read(BulkTable table, BulkFormat format, Path input, long skip,
+                      BlockingQueue<CompletableFuture<Chunk>> queue, ExecutorService parsers, AtomicBoolean cancelled) {
+        try (BufferedReader in = Files.newBufferedReader(input, StandardCharsets.UTF_8)) {
+            if (format.header(table) != null) {
+                in.readLine();
+            }
+
+            long skipped = 0;
+            List<String> records = new ArrayList<>(chunkSize);
+            String record;
+            while ((record = format.readRecord(in)) != null) {
+                if (skipped < skip) {
+                    skipped++;
+                    continue;
+                }
+
+                records.add(record);
+                if (records.size() == chunkSize) {
+                    queue(queue, parse(table, format, records, parsers), cancelled);
+                    records = new ArrayList<>(chunkSize);
+                }
+            }
+
+            if (!records.isEmpty()) {
+                queue(queue, parse(table, format, records, parsers), cancelled);
+            }
+            queue(queue, CompletableFuture.completedFuture(END), cancelled);
+        } catch (IOException | RuntimeException e) {
+            CompletableFuture<Chunk> failure = new CompletableFuture<>();
+            failure.completeExceptionally(e instanceof IOException ? new UncheckedIOException((IOException) e) : e);
+            queue(queue, failure, cancelled);
+        }
+    }
+
+    private static CompletableFuture<Chunk> parse(BulkTable table, BulkFormat format, List<String> records,
+                                                  ExecutorService parsers) {
+        return CompletableFuture.supplyAsync(() -> {
+            List<Object[]> rows = new ArrayList<>(records.size());
+            for (String record : records) {
+                rows.add(format.parse(table, record));
+            }
+            return new Chunk(rows);
+        }, parsers);
+    }
+
+    /**
+     * Waits for space in the queue until the import is cancelled
+     */
+    private static void queue(BlockingQueue<CompletableFuture<Chunk>> queue, CompletableFuture<Chunk> chunk,
+                              AtomicBoolean cancelled) {
+        try {
+            while (!cancelled.get()) {
+                if (queue.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Chunk take(BlockingQueue<CompletableFuture<Chunk>> queue) {
+        try {
+            return queue.take().join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for the file", e);
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+    }
+
+    private void insert(JDBCSession session, BulkTable table, List<Object[]> rows) {
+        int columns = table.getColumns().size();
+        int maxRows = Math.min(rowsPerInsert, MAX_PARAMETERS / columns);
+
+        try {
+            for (int from = 0; from < rows.size(); from += maxRows) {
+                List<Object[]> statementRows = rows.subList(from, Math.min(from + maxRows, rows.size()));
+                PreparedStatement statement = session.prepareStatement(insertQuery(table, statementRows.size()));
+
+                int parameter = 1;
+                for (Object[] row : statementRows) {
+                    for (int column = 0; column < columns; column++) {
+                        bind(statement, parameter++, row[column], table.getType(column));
+                    }
+                }
+                statement.executeUpdate();
+            }
+        } catch (SQLException e) {
+            throw new SimpleSQLException(e);
+        }
+    }
+
+    private static String insertQuery(BulkTable table, int rows) {
+        String values = "(" + JDBCUtils.placeholders(table.getColumns().size()) + ")";
+        String updates = table.getColumns().stream()
+                .map(column -> format("%s = VALUES(%s)", column, column))
+                .collect(Collectors.joining(", "));
+        return format("INSERT INTO %s(%s) VALUES %s ON DUPLICATE KEY UPDATE %s", table.getTable(),
+                String.join(", ", table.getColumns()), String.join(", ", Collections.nCopies(rows, values)), updates);
+    }
+
+    private static void bind(PreparedStatement statement, int parameter, Object value, Class<?> type)
+            throws SQLException {
+        if (value == null) {
+            statement.setNull(parameter, type == String.class ? Types.VARCHAR : Types.INTEGER);
+        } else if (value instanceof Integer) {
+            statement.setInt(parameter, (Integer) value);
+        } else {
+            statement.setString(parameter, (String) value);
+        }
+    }
+
+    private static final class Chunk {
+        private final List<Object[]> rows;
+
+        Chunk(List<Object[]> rows) {
+            this.rows = rows;
+        }
+    }
+}
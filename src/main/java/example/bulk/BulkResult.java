@@ -0,0 +1,46 @@
+package example.bulk;
+
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.String.format;
+
+/**
+ * Progress of an import or an export with his throughput
+ */
+public final class BulkResult {
+
+    private final BulkTable table;
+    private final long rows;
+    private final long elapsedNanos;
+
+    BulkResult(BulkTable table, long rows, long elapsedNanos) {
+        this.table = table;
+        this.rows = rows;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public BulkTable getTable() {
+        return table;
+    }
+
+    /**
+     * Rows imported or exported by this run
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    public long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+    }
+
+    public double getRowsPerSecond() {
+        return elapsedNanos == 0 ? 0 : rows * 1e9 / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return format("%s: %d rows in %.1f s (%.0f rows/s)", table.getTable(), rows, elapsedNanos / 1e9,
+                getRowsPerSecond());
+    }
+}
@@ -0,0 +1,83 @@
+package example.bulk;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tables that can be imported and exported with their columns in the order of the files.
+ * <p>
+ * The first column is the id used to resume an export, the rows are exported in his order. The users
+ * must be imported before their addresses and contacts.
+ */
+public enum BulkTable {
+
+    USER("user", "idUser",
+            new String[]{"idUser", "name", "email"},
+            new Class<?>[]{Integer.class, String.class, String.class}),
+    USER_ADDRESS("useraddress", "idUserAddress",
+            new String[]{"idUserAddress", "idUser", "address"},
+            new Class<?>[]{Integer.class, Integer.class, String.class}),
+    USER_CONTACT("usercontact", "idUser, idContact",
+            new String[]{"idUser", "idContact"},
+            new Class<?>[]{Integer.class, Integer.class});
+
+    private final String table;
+    private final String orderBy;
+    private final List<String> columns;
+    private final Class<?>[] types;
+
+    BulkTable(String table, String orderBy, String[] columns, Class<?>[] types) {
+        this.table = table;
+        this.orderBy = orderBy;
+        this.columns = Collections.unmodifiableList(Arrays.asList(columns));
+        this.types = types;
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    /**
+     * Order of the exported rows, it starts with the id column
+     */
+    public String getOrderBy() {
+        return orderBy;
+    }
+
+    public List<String> getColumns() {
+        return columns;
+    }
+
+    /**
+     * Column of the id used to resume an export
+     */
+    public String getIdColumn() {
+        return columns.get(0);
+    }
+
+    /**
+     * Type of the values of a column, Integer or String
+     */
+    public Class<?> getType(int column) {
+        return types[column];
+    }
+
+    /**
+     * Converts the text of a column of a file to his value
+     *
+     * @param column index of the column
+     * @param text   text of the value, null for a SQL NULL
+     */
+    Object convert(int column, String text) {
+        if (text == null || types[column] == String.class) {
+            return text;
+        }
+        try {
+            return Integer.valueOf(text.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("The value '%s' of %s is not a number",
+                    text, columns.get(column)), e);
+        }
+    }
+}
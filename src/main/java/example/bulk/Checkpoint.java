@@ -0,0 +1,65 @@
+package example.bulk;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * File with the progress of an import or an export to resume it, it is replaced atomically so a crash
+ * leaves the previous checkpoint
+ */
+final class Checkpoint {
+
+    private final Path file;
+
+    /**
+     * Checkpoint of the given bulk file, stored next to it with the extension .checkpoint
+     */
+    Checkpoint(Path bulkFile) {
+        this.file = bulkFile.resolveSibling(bulkFile.getFileName() + ".checkpoint");
+    }
+
+    /**
+     * Reads the values of the last checkpoint
+     *
+     * @return The values or null if there is no checkpoint
+     */
+    long[] read() {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try {
+            String content = new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim();
+            return Arrays.stream(content.split("\\s+")).mapToLong(Long::parseLong).toArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    void save(long... values) {
+        Path temporal = file.resolveSibling(file.getFileName() + ".tmp");
+        StringBuilder content = new StringBuilder();
+        for (long value : values) {
+            content.append(value).append('\n');
+        }
+
+        try {
+            Files.write(temporal, content.toString().getBytes(StandardCharsets.UTF_8));
+            Files.move(temporal, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    void delete() {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
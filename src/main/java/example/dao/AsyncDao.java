@@ -0,0 +1,65 @@
+package example.dao;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Asynchronous version of the Dao, every method runs on a bounded executor with his own session and
+ * connection, so the caller doesn't need a session and several calls can run in parallel.
+ * <p>
+ * The elements returned by different calls come from different sessions, so they are never the same
+ * instance. There is no stream as his result set can not outlive the session of the task.
+ *
+ * @param <T>  Type of the object that manages the dao
+ * @param <ID> Type of the Id that manages the dao
+ */
+public interface AsyncDao<T, ID> {
+
+    CompletableFuture<Optional<T>> get(ID id);
+
+    CompletableFuture<List<T>> getAll();
+
+    /**
+     * See Dao.getAll(Collection)
+     */
+    CompletableFuture<Map<ID, T>> getAll(Collection<ID> ids);
+
+    /**
+     * See Dao.getPage
+     */
+    CompletableFuture<List<T>> getPage(ID afterId, int limit);
+
+    CompletableFuture<Void> save(T t);
+
+    CompletableFuture<Void> update(T t);
+
+    CompletableFuture<Void> delete(T t);
+
+    /**
+     * See Dao.upsert
+     */
+    CompletableFuture<UpsertResult> upsert(T t);
+
+    /**
+     * Upserts all the elements in a single transaction, see Dao.upsertAll
+     */
+    CompletableFuture<List<UpsertResult>> upsertAll(Collection<T> ts);
+
+    /**
+     * Saves all the elements in batches in a single transaction
+     */
+    CompletableFuture<Void> saveAll(Collection<T> ts);
+
+    /**
+     * Updates all the elements in batches in a single transaction
+     */
+    CompletableFuture<Void> updateAll(Collection<T> ts);
+
+    /**
+     * Deletes all the elements in batches in a single transaction
+     */
+    CompletableFuture<Void> deleteAll(Collection<T> ts);
+}
@@ -0,0 +1,21 @@
+package example.dao;
+
+import example.model.User;
+import example.model.UserAddress;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Asynchronous version of the User Address model Dao, see UserAddressDao
+ */
+public interface AsyncUserAddressDao extends AsyncDao<UserAddress, Integer> {
+
+    CompletableFuture<List<UserAddress>> getForUser(User user);
+
+    CompletableFuture<Map<User, List<UserAddress>>> getForUsers(Collection<User> users);
+
+    CompletableFuture<List<UserAddress>> getForUser(User user, Integer afterId, int limit);
+}
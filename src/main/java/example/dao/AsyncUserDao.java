@@ -0,0 +1,39 @@
+package example.dao;
+
+import example.model.User;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Asynchronous version of the User model Dao, see UserDao
+ */
+public interface AsyncUserDao extends AsyncDao<User, Integer> {
+
+    CompletableFuture<Set<User>> getContacts(User user);
+
+    /**
+     * Gets and adds the contacts to the user, the future completes with the same user
+     */
+    CompletableFuture<User> populateContacts(User user);
+
+    /**
+     * Gets and adds to each user all his contacts fetching them for all the users at once
+     */
+    CompletableFuture<Void> populateContacts(Collection<User> users);
+
+    CompletableFuture<Void> addContact(User user, User contact);
+
+    /**
+     * Adds several contacts for a user in batches in a single transaction
+     */
+    CompletableFuture<Void> addContacts(User user, Collection<User> contacts);
+
+    /**
+     * See UserDao.addContactIfAbsent
+     */
+    CompletableFuture<Boolean> addContactIfAbsent(User user, User contact);
+
+    CompletableFuture<Void> deleteContact(User user, User contact);
+}
@@ -1,7 +1,11 @@
 package example.dao;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 /**
  * Simple definition of all methods that must have a Dao
@@ -15,9 +19,118 @@ public interface Dao<T, ID> {
 
     List<T> getAll();
 
+    /**
+     * Gets all the elements with the given ids, ids without element are not present in the result
+     *
+     * @param ids ids of the elements to fetch, duplicated ids are fetched once
+     * @return The elements found keyed by his id in the same order than the ids
+     */
+    Map<ID, T> getAll(Collection<ID> ids);
+
+    /**
+     * Gets a page of elements ordered by id using a seek on the id instead of an offset, so every page
+     * costs the same whatever his position.
+     * <p>
+     * The next page is requested with the id of the last element of the current page.
+     *
+     * @param afterId id of the last element of the previous page, null for the first page
+     * @param limit   max amount of elements of the page
+     * @return The elements with an id greater than afterId
+     */
+    List<T> getPage(ID afterId, int limit);
+
+    /**
+     * Streams all the elements reading them lazily, so they are not loaded in memory at the same time
+     * <p>
+     * Note: the stream must be closed after use it
+     *
+     * @return A lazy stream of all the elements
+     */
+    Stream<T> stream();
+
+    /**
+     * Iterates all the elements reading them lazily
+     *
+     * @param action to execute for each element
+     */
+    default void forEach(Consumer<? super T> action) {
+        try (Stream<T> stream = stream()) {
+            stream.forEach(action);
+        }
+    }
+
+    /**
+     * Streams all the elements splitting the ids in partitions that are read in parallel, each one on his
+     * own connection, e.g. for a full export or reindex. The elements are not registered in the session.
+     * <p>
+     * By default it is the sequential stream.
+     * <p>
+     * Note: the stream must be closed after use it
+     *
+     * @param partitions amount of ranges of ids to read, usually a few per core
+     * @return A lazy parallel stream of all the elements without order
+     */
+    default Stream<T> parallelStream(int partitions) {
+        return stream();
+    }
+
+    /**
+     * Iterates all the elements reading partitions of the ids in parallel, see parallelStream.
+     * <p>
+     * The action is called concurrently from several threads
+     *
+     * @param partitions amount of ranges of ids to read
+     * @param action     to execute for each element
+     */
+    default void forEachParallel(int partitions, Consumer<? super T> action) {
+        try (Stream<T> stream = parallelStream(partitions)) {
+            stream.forEach(action);
+        }
+    }
+
     void save(T t);
 
     void update(T t);
 
     void delete(T t);
+
+    /**
+     * Inserts the element or updates it if there is already an element with his id, in a single statement
+     * without reading it before. An element without id is always inserted and gets the generated id
+     *
+     * @param t element to insert or update
+     * @return If the element was inserted or updated
+     */
+    UpsertResult upsert(T t);
+
+    /**
+     * Upserts all the elements, the elements without id are inserted in batches and get the generated id.
+     * The elements with id are upserted one by one, so the outcome of each of them is known even when the
+     * driver rewrites the batches as a single statement
+     *
+     * @param ts elements to insert or update
+     * @return The outcome of each element in the order of the elements
+     */
+    List<UpsertResult> upsertAll(Collection<T> ts);
+
+    /**
+     * Saves all the elements in batches, setting the generated id on each of them
+     *
+     * @param ts elements to save
+     */
+    void saveAll(Collection<T> ts);
+
+    /**
+     * Updates all the elements in batches
+     *
+     * @param ts elements to update
+     */
+    void updateAll(Collection<T> ts);
+
+    /**
+     * Deletes all the elements in batches
+     *
+     * @param ts elements to delete
+     */
+    void deleteAll(Collection<T> ts);
 }
\ No newline at end of file
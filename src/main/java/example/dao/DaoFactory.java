@@ -1,7 +1,21 @@
 package example.dao;
 
+import example.dao.async.DaoExecutor;
+import example.dao.async.ExecutorAsyncUserAddressDao;
+import example.dao.async.ExecutorAsyncUserDao;
+import example.dao.cache.CachedUserAddressDao;
+import example.dao.cache.CachedUserDao;
+import example.dao.cache.DaoCaches;
+import example.dao.graph.ContactGraph;
+import example.dao.graph.ContactGraphUserDao;
+import example.dao.impl.GenericDaoJdbc;
 import example.dao.impl.UserAddressDaoJdbc;
 import example.dao.impl.UserDaoJdbc;
+import example.dao.shard.ShardedUserAddressDao;
+import example.dao.shard.ShardedUserDao;
+import example.dao.writebehind.WriteBehindUserDao;
+import example.jdbc.JDBCSession;
+import example.jdbc.JDBCUtils;
 
 /**
  * Encapsulates the implementation of the dao and the complexity of build a Dao
@@ -9,11 +23,78 @@ import example.dao.impl.UserDaoJdbc;
 public interface DaoFactory {
 
     static UserDao buildUserDao() {
-        return new UserDaoJdbc();
+        UserDao userDao = isSharded() ? new ShardedUserDao() : new UserDaoJdbc();
+        userDao = DaoCaches.isEnabled() ? new CachedUserDao(userDao) : userDao;
+        return ContactGraph.isEnabled() ? new ContactGraphUserDao(userDao, ContactGraph.getDefault()) : userDao;
     }
 
     static UserAddressDao buildUserAddressDao() {
-        return new UserAddressDaoJdbc();
+        UserAddressDao userAddressDao = isSharded() ? new ShardedUserAddressDao() : new UserAddressDaoJdbc();
+        return DaoCaches.isEnabled() ? new CachedUserAddressDao(userAddressDao) : userAddressDao;
+    }
+
+    /**
+     * Builds a User Dao that always uses the given session instead of the session bound to the current
+     * thread, e.g. with a detached session of a virtual thread
+     */
+    static UserDao buildUserDao(JDBCSession session) {
+        UserDao userDao = isSharded() ? new ShardedUserDao(session) : new UserDaoJdbc(session);
+        userDao = DaoCaches.isEnabled() ? new CachedUserDao(userDao, session) : userDao;
+        return ContactGraph.isEnabled()
+                ? new ContactGraphUserDao(userDao, ContactGraph.getDefault(), session) : userDao;
+    }
+
+    /**
+     * Builds a User Address Dao that always uses the given session instead of the session bound to the
+     * current thread, e.g. with a detached session of a virtual thread
+     */
+    static UserAddressDao buildUserAddressDao(JDBCSession session) {
+        UserAddressDao userAddressDao = isSharded()
+                ? new ShardedUserAddressDao(session) : new UserAddressDaoJdbc(session);
+        return DaoCaches.isEnabled() ? new CachedUserAddressDao(userAddressDao, session) : userAddressDao;
+    }
+
+    /**
+     * Builds an async User Dao that runs on the default DaoExecutor, the caller doesn't need a session
+     */
+    static AsyncUserDao buildAsyncUserDao() {
+        return new ExecutorAsyncUserDao(buildUserDao(), DaoExecutor.getDefault());
+    }
+
+    /**
+     * Builds an async User Address Dao that runs on the default DaoExecutor, the caller doesn't need a session
+     */
+    static AsyncUserAddressDao buildAsyncUserAddressDao() {
+        return new ExecutorAsyncUserAddressDao(buildUserAddressDao(), DaoExecutor.getDefault());
+    }
+
+    /**
+     * Builds a User Dao that coalesces the updates and writes them later in batches from a background
+     * thread, see WriteBehindUserDao. It must be closed to write the last updates
+     */
+    static WriteBehindUserDao buildWriteBehindUserDao() {
+        return new WriteBehindUserDao(buildUserDao());
+    }
+
+    /**
+     * Builds a Dao for a simple entity mapped by convention, see EntityMapping
+     */
+    static <T> Dao<T, Integer> buildDao(Class<T> type) {
+        return new GenericDaoJdbc<>(type);
+    }
+
+    /**
+     * Builds a Dao for a simple entity that always uses the given session
+     */
+    static <T> Dao<T, Integer> buildDao(Class<T> type, JDBCSession session) {
+        return new GenericDaoJdbc<>(type, session);
+    }
+
+    /**
+     * Indicates if the users and his addresses are distributed between the shards of jdbc.shards
+     */
+    static boolean isSharded() {
+        return JDBCUtils.getShardRouter().isSharded();
     }
 
 }
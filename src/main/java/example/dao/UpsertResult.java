@@ -0,0 +1,46 @@
+package example.dao;
+
+/**
+ * Outcome of the upsert of an element
+ */
+public enum UpsertResult {
+
+    /**
+     * The element didn't exist and it was inserted
+     */
+    INSERTED,
+    /**
+     * The element existed and it was updated
+     */
+    UPDATED,
+    /**
+     * The element existed with the same values
+     */
+    UNCHANGED,
+    /**
+     * The driver didn't report the rows of the element, e.g. in a batch rewritten as a single statement
+     */
+    UNKNOWN;
+
+    /**
+     * Gets the outcome from the affected rows of an INSERT ... ON DUPLICATE KEY UPDATE of a single row.
+     * <p>
+     * MySQL reports 1 for an insert, 2 for an update and 0 for an existing row without changes, the
+     * latter requires useAffectedRows=true, otherwise it reports 1 as for an insert. JDBCUtils adds it to
+     * the MySQL urls that don't set it
+     *
+     * @param affectedRows rows reported by the driver for the row
+     */
+    public static UpsertResult fromAffectedRows(int affectedRows) {
+        switch (affectedRows) {
+            case 0:
+                return UNCHANGED;
+            case 1:
+                return INSERTED;
+            case 2:
+                return UPDATED;
+            default:
+                return UNKNOWN;
+        }
+    }
+}
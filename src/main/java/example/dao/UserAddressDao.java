@@ -3,7 +3,9 @@ package example.dao;
 import example.model.User;
 import example.model.UserAddress;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Definition of the User Address model Dao
@@ -11,4 +13,22 @@ import java.util.List;
 public interface UserAddressDao extends Dao<UserAddress, Integer> {
 
     List<UserAddress> getForUser(User user);
+
+    /**
+     * Gets the addresses of several users fetching them for all the users at once
+     *
+     * @param users owners of the addresses
+     * @return The addresses of each user, users without addresses have an empty list
+     */
+    Map<User, List<UserAddress>> getForUsers(Collection<User> users);
+
+    /**
+     * Gets a page of the addresses of a user ordered by id using a seek on the id
+     *
+     * @param user    owner of the addresses
+     * @param afterId id of the last address of the previous page, null for the first page
+     * @param limit   max amount of addresses of the page
+     * @return The addresses of the user with an id greater than afterId
+     */
+    List<UserAddress> getForUser(User user, Integer afterId, int limit);
 }
@@ -2,6 +2,7 @@ package example.dao;
 
 import example.model.User;
 
+import java.util.Collection;
 import java.util.Set;
 
 /**
@@ -24,6 +25,15 @@ public interface UserDao extends Dao<User, Integer> {
      */
     void populateContacts(User user);
 
+    /**
+     * Gets and add to each user all his contacts fetching them for all the users at once.
+     * <p>
+     * A contact shared by several users is the same instance in all of them
+     *
+     * @param users to find the contacts and add them
+     */
+    void populateContacts(Collection<User> users);
+
     /**
      * Adds a contact for a user
      *
@@ -32,6 +42,23 @@ public interface UserDao extends Dao<User, Integer> {
      */
     void addContact(User user, User contact);
 
+    /**
+     * Adds several contacts for a user in batches
+     *
+     * @param user     user to add the contacts
+     * @param contacts contacts to add to the user
+     */
+    void addContacts(User user, Collection<User> contacts);
+
+    /**
+     * Adds a contact for a user unless he already has it, in a single statement
+     *
+     * @param user    user to add a contact
+     * @param contact contact to add to the user
+     * @return true if the contact was added, false if the user already had it
+     */
+    boolean addContactIfAbsent(User user, User contact);
+
     /**
      * Deletes a contact for a user
      *
@@ -0,0 +1,181 @@
+package example.dao.async;
+
+import example.jdbc.JDBCSession;
+import example.jdbc.JDBCUtils;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Bounded executor of DAO tasks, each task opens his own session on the thread that runs it and closes
+ * it when the task finishes.
+ * <p>
+ * By default it has as many threads as connections in the pool, so a task never waits for a connection
+ * unless the synchronous sessions are using them, and the pending tasks are queued up to
+ * jdbc.async.queueSize. Once the queue is full the new tasks fail with a RejectedExecutionException
+ * instead of blocking the caller.
+ * <p>
+ * With jdbc.async.virtualThreads each task runs on his own virtual thread instead, see virtualThreads.
+ */
+public class DaoExecutor implements AutoCloseable {
+
+    private static final String THREADS = "jdbc.async.threads";
+    private static final String QUEUE_SIZE = "jdbc.async.queueSize";
+    private static final String VIRTUAL_THREADS = "jdbc.async.virtualThreads";
+
+    private final ExecutorService executor;
+
+    /**
+     * Creates a new executor
+     *
+     * @param threads   amount of tasks running at the same time
+     * @param queueSize max amount of tasks waiting for a thread
+     */
+    public DaoExecutor(int threads, int queueSize) {
+        AtomicInteger count = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueSize), runnable -> {
+            Thread thread = new Thread(runnable, "jdbc-dao-async-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        this.executor = executor;
+    }
+
+    private DaoExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Creates an executor that runs each task on a new virtual thread, the tasks are not queued by the
+     * executor but by the connection pool, that blocks the virtual threads without pinning their carrier.
+     * <p>
+     * The project targets Java 8, so the virtual threads are created by reflection
+     *
+     * @throws UnsupportedOperationException if the JVM doesn't support virtual threads, Java 21 or later
+     */
+    public static DaoExecutor virtualThreads() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return new DaoExecutor((ExecutorService) factory.invoke(null));
+        } catch (NoSuchMethodException e) {
+            throw new UnsupportedOperationException("The virtual threads require Java 21 or later", e);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("The virtual thread executor could not be created", e);
+        }
+    }
+
+    /**
+     * Gets the executor shared by the async DAO's built by the DaoFactory, it is created on the first use
+     */
+    public static DaoExecutor getDefault() {
+        return DefaultHolder.EXECUTOR;
+    }
+
+    /**
+     * Runs the task with his own session, bound to the thread while the task runs
+     *
+     * @param task code that uses the DAO's
+     * @return A future completed with the result of the task or with his exception
+     */
+    public <R> CompletableFuture<R> submit(Supplier<R> task) {
+        return submitWithSession(session -> session.callInScope(task));
+    }
+
+    /**
+     * Runs the task with his own detached session passed explicitly, the session is not bound to the
+     * thread so the DAO's must be built with it, see DaoFactory.buildUserDao(JDBCSession)
+     *
+     * @param task code that uses the DAO's built with the session
+     * @return A future completed with the result of the task or with his exception
+     */
+    public <R> CompletableFuture<R> submitWithSession(Function<JDBCSession, R> task) {
+        CompletableFuture<R> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                R result;
+                try (JDBCSession session = JDBCSession.openDetached()) {
+                    result = task.apply(session);
+                } catch (Throwable e) {
+                    future.completeExceptionally(e instanceof CompletionException ? e.getCause() : e);
+                    return;
+                }
+                // Completed once the session is closed, so the dependent stages don't run on it
+                future.complete(result);
+            });
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Runs the task with his own session
+     *
+     * @param task code that uses the DAO's
+     * @return A future completed when the task finishes or with his exception
+     */
+    public CompletableFuture<Void> execute(Runnable task) {
+        return submit(() -> {
+            task.run();
+            return null;
+        });
+    }
+
+    /**
+     * Runs the task with his own session inside a transaction
+     *
+     * @param task code that uses the DAO's
+     * @return A future completed when the transaction is committed or with the exception that rolled it back
+     */
+    public CompletableFuture<Void> executeOnTransaction(Runnable task) {
+        return execute(() -> JDBCSession.current().onTransaction(task));
+    }
+
+    /**
+     * Runs the task with his own session inside a transaction
+     *
+     * @param task code that uses the DAO's
+     * @return A future completed with the result once the transaction is committed or with the exception
+     * that rolled it back
+     */
+    public <R> CompletableFuture<R> submitOnTransaction(Supplier<R> task) {
+        return submit(() -> {
+            List<R> result = new ArrayList<>(1);
+            JDBCSession.current().onTransaction(() -> result.add(task.get()));
+            return result.get(0);
+        });
+    }
+
+    /**
+     * Stops accepting tasks, the pending ones still run
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    private static final class DefaultHolder {
+        private static final DaoExecutor EXECUTOR = createDefault();
+
+        private static DaoExecutor createDefault() {
+            if (Boolean.parseBoolean(JDBCUtils.getProperty(VIRTUAL_THREADS, "false"))) {
+                return virtualThreads();
+            }
+            return new DaoExecutor(JDBCUtils.getIntProperty(THREADS, JDBCUtils.getConnectionPool().getMaxSize()),
+                    JDBCUtils.getIntProperty(QUEUE_SIZE, 1000));
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package example.dao.async;
+
+import example.dao.AsyncUserAddressDao;
+import example.dao.UpsertResult;
+import example.dao.UserAddressDao;
+import example.model.User;
+import example.model.UserAddress;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Async User Address Dao that runs each call of the synchronous Dao on a DaoExecutor
+ */
+public class ExecutorAsyncUserAddressDao implements AsyncUserAddressDao {
+
+    private final UserAddressDao delegate;
+    private final DaoExecutor executor;
+
+    public ExecutorAsyncUserAddressDao(UserAddressDao delegate, DaoExecutor executor) {
+        this.delegate = delegate;
+        this.executor = executor;
+    }
+
+    @Override
+    public CompletableFuture<Optional<UserAddress>> get(Integer id) {
+        return executor.submit(() -> delegate.get(id));
+    }
+
+    @Override
+    public CompletableFuture<List<UserAddress>> getAll() {
+        return executor.submit(delegate::getAll);
+    }
+
+    @Override
+    public CompletableFuture<Map<Integer, UserAddress>> getAll(Collection<Integer> ids) {
+        return executor.submit(() -> delegate.getAll(ids));
+    }
+
+    @Override
+    public CompletableFuture<List<UserAddress>> getPage(Integer afterId, int limit) {
+        return executor.submit(() -> delegate.getPage(afterId, limit));
+    }
+
+    @Override
+    public CompletableFuture<Void> save(UserAddress userAddress) {
+        return executor.execute(() -> delegate.save(userAddress));
+    }
+
+    @Override
+    public CompletableFuture<Void> update(UserAddress userAddress) {
+        return executor.execute(() -> delegate.update(userAddress));
+    }
+
+    @Override
+    public CompletableFuture<Void> delete(UserAddress userAddress) {
+        return executor.execute(() -> delegate.delete(userAddress));
+    }
+
+    @Override
+    public CompletableFuture<UpsertResult> upsert(UserAddress userAddress) {
+        return executor.submit(() -> delegate.upsert(userAddress));
+    }
+
+    @Override
+    public CompletableFuture<List<UpsertResult>> upsertAll(Collection<UserAddress> userAddresses) {
+        return executor.submitOnTransaction(() -> delegate.upsertAll(userAddresses));
+    }
+
+    @Override
+    public CompletableFuture<Void> saveAll(Collection<UserAddress> userAddresses) {
+        return executor.executeOnTransaction(() -> delegate.saveAll(userAddresses));
+    }
+
+    @Override
+    public CompletableFuture<Void> updateAll(Collection<UserAddress> userAddresses) {
+        return executor.executeOnTransaction(() -> delegate.updateAll(userAddresses));
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteAll(Collection<UserAddress> userAddresses) {
+        return executor.executeOnTransaction(() -> delegate.deleteAll(userAddresses));
+    }
+
+    @Override
+    public CompletableFuture<List<UserAddress>> getForUser(User user) {
+        return executor.submit(() -> delegate.getForUser(user));
+    }
+
+    @Override
+    public CompletableFuture<Map<User, List<UserAddress>>> getForUsers(Collection<User> users) {
+        return executor.submit(() -> delegate.getForUsers(users));
+    }
+
+    @Override
+    public CompletableFuture<List<UserAddress>> getForUser(User user, Integer afterId, int limit) {
+        return executor.submit(() -> delegate.getForUser(user, afterId, limit));
+    }
+}
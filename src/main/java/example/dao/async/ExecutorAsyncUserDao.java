@@ -0,0 +1,121 @@
+package example.dao.async;
+
+import example.dao.AsyncUserDao;
+import example.dao.UpsertResult;
+import example.dao.UserDao;
+import example.model.User;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Async User Dao that runs each call of the synchronous Dao on a DaoExecutor
+ */
+public class ExecutorAsyncUserDao implements AsyncUserDao {
+
+    private final UserDao delegate;
+    private final DaoExecutor executor;
+
+    public ExecutorAsyncUserDao(UserDao delegate, DaoExecutor executor) {
+        this.delegate = delegate;
+        this.executor = executor;
+    }
+
+    @Override
+    public CompletableFuture<Optional<User>> get(Integer id) {
+        return executor.submit(() -> delegate.get(id));
+    }
+
+    @Override
+    public CompletableFuture<List<User>> getAll() {
+        return executor.submit(delegate::getAll);
+    }
+
+    @Override
+    public CompletableFuture<Map<Integer, User>> getAll(Collection<Integer> ids) {
+        return executor.submit(() -> delegate.getAll(ids));
+    }
+
+    @Override
+    public CompletableFuture<List<User>> getPage(Integer afterId, int limit) {
+        return executor.submit(() -> delegate.getPage(afterId, limit));
+    }
+
+    @Override
+    public CompletableFuture<Void> save(User user) {
+        return executor.execute(() -> delegate.save(user));
+    }
+
+    @Override
+    public CompletableFuture<Void> update(User user) {
+        return executor.execute(() -> delegate.update(user));
+    }
+
+    @Override
+    public CompletableFuture<Void> delete(User user) {
+        return executor.execute(() -> delegate.delete(user));
+    }
+
+    @Override
+    public CompletableFuture<UpsertResult> upsert(User user) {
+        return executor.submit(() -> delegate.upsert(user));
+    }
+
+    @Override
+    public CompletableFuture<List<UpsertResult>> upsertAll(Collection<User> users) {
+        return executor.submitOnTransaction(() -> delegate.upsertAll(users));
+    }
+
+    @Override
+    public CompletableFuture<Void> saveAll(Collection<User> users) {
+        return executor.executeOnTransaction(() -> delegate.saveAll(users));
+    }
+
+    @Override
+    public CompletableFuture<Void> updateAll(Collection<User> users) {
+        return executor.executeOnTransaction(() -> delegate.updateAll(users));
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteAll(Collection<User> users) {
+        return executor.executeOnTransaction(() -> delegate.deleteAll(users));
+    }
+
+    @Override
+    public CompletableFuture<Set<User>> getContacts(User user) {
+        return executor.submit(() -> delegate.getContacts(user));
+    }
+
+    @Override
+    public CompletableFuture<User> populateContacts(User user) {
+        return executor.submit(() -> {
+            delegate.populateContacts(user);
+            return user;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> populateContacts(Collection<User> users) {
+        return executor.execute(() -> delegate.populateContacts(users));
+    }
+
+    @Override
+    public CompletableFuture<Void> addContact(User user, User contact) {
+        return executor.execute(() -> delegate.addContact(user, contact));
+    }
+
+    @Override
+    public CompletableFuture<Void> addContacts(User user, Collection<User> contacts) {
+        return executor.executeOnTransaction(() -> delegate.addContacts(user, contacts));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> addContactIfAbsent(User user, User contact) {
+        return executor.submit(() -> delegate.addContactIfAbsent(user, contact));
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteContact(User user, User contact) {
+        return executor.execute(() -> delegate.deleteContact(user, contact));
+    }
+}
@@ -0,0 +1,217 @@
+package example.dao.cache;
+
+import example.dao.DaoFactory;
+import example.dao.UpsertResult;
+import example.dao.UserAddressDao;
+import example.dao.UserDao;
+import example.jdbc.JDBCSession;
+import example.model.User;
+import example.model.UserAddress;
+
+import java.util.*;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * User Address Dao decorator that caches the addresses between sessions.
+ * <p>
+ * Only get and getAll by ids are served from the cache, the writes invalidate the affected entries
+ * now and again after the transaction of the session.
+ */
+public class CachedUserAddressDao implements UserAddressDao {
+
+    private final UserAddressDao delegate;
+    private final Supplier<JDBCSession> sessionSupplier;
+    private final EntityCache<Integer, UserAddress> userAddresses;
+    // Loads the users of the cached addresses that only know his id
+    private final UserDao userDao;
+
+    public CachedUserAddressDao(UserAddressDao delegate) {
+        this(delegate, null);
+    }
+
+    /**
+     * Decorator that always uses the given session instead of the session bound to the current thread
+     *
+     * @param delegate Dao to decorate, it should use the same session
+     * @param session  session of the Dao, null to use the session bound to the calling thread
+     */
+    public CachedUserAddressDao(UserAddressDao delegate, JDBCSession session) {
+        this.delegate = delegate;
+        this.sessionSupplier = session == null ? JDBCSession::current : () -> session;
+        this.userAddresses = DaoCaches.userAddresses();
+        this.userDao = session == null ? DaoFactory.buildUserDao() : DaoFactory.buildUserDao(session);
+    }
+
+    @Override
+    public Optional<UserAddress> get(Integer id) {
+        JDBCSession session = getSession();
+
+        UserAddress known = session.getEntity(UserAddress.class, id);
+        if (known != null) {
+            return Optional.of(known);
+        }
+
+        UserAddress cached = userAddresses.get(id);
+        if (cached != null) {
+            return Optional.of(fromCache(session, cached));
+        }
+
+        long stamp = userAddresses.stamp(id);
+        Optional<UserAddress> userAddress = delegate.get(id);
+        userAddress.ifPresent(a -> cache(a, stamp));
+        return userAddress;
+    }
+
+    @Override
+    public List<UserAddress> getAll() {
+        return delegate.getAll();
+    }
+
+    @Override
+    public Map<Integer, UserAddress> getAll(Collection<Integer> ids) {
+        JDBCSession session = getSession();
+        Map<Integer, UserAddress> found = new HashMap<>();
+        Map<Integer, Long> missing = new LinkedHashMap<>();
+
+        for (Integer id : ids) {
+            // A null id has no entity, the caches and the identity map don't accept it
+            if (id == null) {
+                continue;
+            }
+
+            UserAddress known = session.getEntity(UserAddress.class, id);
+            UserAddress cached = known == null ? userAddresses.get(id) : null;
+            if (known != null) {
+                found.put(id, known);
+            } else if (cached != null) {
+                found.put(id, fromCache(session, cached));
+            } else {
+                missing.put(id, userAddresses.stamp(id));
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            delegate.getAll(missing.keySet()).forEach((id, userAddress) -> {
+                cache(userAddress, missing.get(id));
+                found.put(id, userAddress);
+            });
+        }
+
+        Map<Integer, UserAddress> results = new LinkedHashMap<>();
+        for (Integer id : ids) {
+            UserAddress userAddress = found.get(id);
+            if (userAddress != null) {
+                results.put(id, userAddress);
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public List<UserAddress> getPage(Integer afterId, int limit) {
+        return delegate.getPage(afterId, limit);
+    }
+
+    @Override
+    public Stream<UserAddress> stream() {
+        return delegate.stream();
+    }
+
+    @Override
+    public List<UserAddress> getForUser(User user) {
+        return delegate.getForUser(user);
+    }
+
+    @Override
+    public List<UserAddress> getForUser(User user, Integer afterId, int limit) {
+        return delegate.getForUser(user, afterId, limit);
+    }
+
+    @Override
+    public Map<User, List<UserAddress>> getForUsers(Collection<User> users) {
+        return delegate.getForUsers(users);
+    }
+
+    @Override
+    public Stream<UserAddress> parallelStream(int partitions) {
+        return delegate.parallelStream(partitions);
+    }
+
+    @Override
+    public void save(UserAddress userAddress) {
+        delegate.save(userAddress);
+    }
+
+    @Override
+    public void update(UserAddress userAddress) {
+        delegate.update(userAddress);
+        DaoCaches.invalidate(getSession(), () -> userAddresses.invalidate(userAddress.getId()));
+    }
+
+    @Override
+    public void delete(UserAddress userAddress) {
+        delegate.delete(userAddress);
+        DaoCaches.invalidate(getSession(), () -> userAddresses.invalidate(userAddress.getId()));
+    }
+
+    @Override
+    public UpsertResult upsert(UserAddress userAddress) {
+        UpsertResult result = delegate.upsert(userAddress);
+        DaoCaches.invalidate(getSession(), () -> userAddresses.invalidate(userAddress.getId()));
+        return result;
+    }
+
+    @Override
+    public List<UpsertResult> upsertAll(Collection<UserAddress> userAddresses) {
+        List<UpsertResult> results = delegate.upsertAll(userAddresses);
+        invalidateAll(userAddresses);
+        return results;
+    }
+
+    @Override
+    public void saveAll(Collection<UserAddress> userAddresses) {
+        delegate.saveAll(userAddresses);
+    }
+
+    @Override
+    public void updateAll(Collection<UserAddress> userAddresses) {
+        delegate.updateAll(userAddresses);
+        invalidateAll(userAddresses);
+    }
+
+    @Override
+    public void deleteAll(Collection<UserAddress> userAddresses) {
+        delegate.deleteAll(userAddresses);
+        invalidateAll(userAddresses);
+    }
+
+    private UserAddress fromCache(JDBCSession session, UserAddress cached) {
+        UserAddress copy = DaoCaches.copy(cached);
+        Integer idUser = copy.getUserId();
+        if (copy.getUser() == null && idUser != null) {
+            copy.setUserLoader(idUser, () -> {
+                JDBCSession loadingSession = session.lazyLoadingSession("users of the addresses");
+                UserDao dao = loadingSession == session ? userDao : DaoFactory.buildUserDao(loadingSession);
+                copy.setUser(dao.get(idUser).orElse(null));
+            });
+        }
+        return session.registerEntity(UserAddress.class, copy.getId(), copy);
+    }
+
+    private void cache(UserAddress userAddress, long stamp) {
+        if (DaoCaches.canCache(getSession())) {
+            userAddresses.putIfNotInvalidated(userAddress.getId(), DaoCaches.copy(userAddress), stamp);
+        }
+    }
+
+    private void invalidateAll(Collection<UserAddress> userAddresses) {
+        List<Integer> ids = userAddresses.stream().map(UserAddress::getId).collect(Collectors.toList());
+        DaoCaches.invalidate(getSession(), () -> ids.forEach(this.userAddresses::invalidate));
+    }
+
+    private JDBCSession getSession() {
+        return sessionSupplier.get();
+    }
+}
@@ -0,0 +1,278 @@
+package example.dao.cache;
+
+import example.dao.DaoFactory;
+import example.dao.UpsertResult;
+import example.dao.UserDao;
+import example.jdbc.JDBCSession;
+import example.model.User;
+
+import java.util.*;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * User Dao decorator that caches the users and his contacts between sessions.
+ * <p>
+ * Only get, getAll by ids and getContacts are served from the cache, the writes invalidate the
+ * affected entries now and again after the transaction of the session.
+ * <p>
+ * The contacts are cached as ids and read through getAll, so updating a user only invalidates him.
+ */
+public class CachedUserDao implements UserDao {
+
+    private final UserDao delegate;
+    private final Supplier<JDBCSession> sessionSupplier;
+    private final EntityCache<Integer, User> users;
+    private final EntityCache<Integer, Set<Integer>> contacts;
+
+    public CachedUserDao(UserDao delegate) {
+        this(delegate, null);
+    }
+
+    /**
+     * Decorator that always uses the given session instead of the session bound to the current thread
+     *
+     * @param delegate Dao to decorate, it should use the same session
+     * @param session  session of the Dao, null to use the session bound to the calling thread
+     */
+    public CachedUserDao(UserDao delegate, JDBCSession session) {
+        this.delegate = delegate;
+        this.sessionSupplier = session == null ? JDBCSession::current : () -> session;
+        this.users = DaoCaches.users();
+        this.contacts = DaoCaches.contacts();
+    }
+
+    @Override
+    public Optional<User> get(Integer id) {
+        JDBCSession session = getSession();
+
+        User known = session.getEntity(User.class, id);
+        if (known != null) {
+            return Optional.of(known);
+        }
+
+        User cached = users.get(id);
+        if (cached != null) {
+            return Optional.of(fromCache(session, cached));
+        }
+
+        long stamp = users.stamp(id);
+        Optional<User> user = delegate.get(id);
+        user.ifPresent(u -> cache(u, stamp));
+        return user;
+    }
+
+    @Override
+    public List<User> getAll() {
+        return delegate.getAll();
+    }
+
+    @Override
+    public Map<Integer, User> getAll(Collection<Integer> ids) {
+        JDBCSession session = getSession();
+        Map<Integer, User> found = new HashMap<>();
+        Map<Integer, Long> missing = new LinkedHashMap<>();
+
+        for (Integer id : ids) {
+            // A null id has no entity, the caches and the identity map don't accept it
+            if (id == null) {
+                continue;
+            }
+
+            User known = session.getEntity(User.class, id);
+            User cached = known == null ? users.get(id) : null;
+            if (known != null) {
+                found.put(id, known);
+            } else if (cached != null) {
+                found.put(id, fromCache(session, cached));
+            } else {
+                missing.put(id, users.stamp(id));
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            delegate.getAll(missing.keySet()).forEach((id, user) -> {
+                cache(user, missing.get(id));
+                found.put(id, user);
+            });
+        }
+
+        Map<Integer, User> results = new LinkedHashMap<>();
+        for (Integer id : ids) {
+            User user = found.get(id);
+            if (user != null) {
+                results.put(id, user);
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public List<User> getPage(Integer afterId, int limit) {
+        return delegate.getPage(afterId, limit);
+    }
+
+    @Override
+    public Stream<User> stream() {
+        return delegate.stream();
+    }
+
+    @Override
+    public Stream<User> parallelStream(int partitions) {
+        return delegate.parallelStream(partitions);
+    }
+
+    @Override
+    public void save(User user) {
+        delegate.save(user);
+    }
+
+    @Override
+    public void update(User user) {
+        delegate.update(user);
+        Integer id = user.getId();
+        DaoCaches.invalidate(getSession(), () -> users.invalidate(id));
+    }
+
+    @Override
+    public void delete(User user) {
+        delegate.delete(user);
+        DaoCaches.invalidate(getSession(), () -> {
+            invalidateDeletedUser(user.getId());
+            // The addresses of the user are deleted in cascade
+            DaoCaches.userAddresses().invalidateAll();
+        });
+    }
+
+    @Override
+    public UpsertResult upsert(User user) {
+        UpsertResult result = delegate.upsert(user);
+        Integer id = user.getId();
+        DaoCaches.invalidate(getSession(), () -> users.invalidate(id));
+        return result;
+    }
+
+    @Override
+    public List<UpsertResult> upsertAll(Collection<User> users) {
+        List<UpsertResult> results = delegate.upsertAll(users);
+        List<Integer> ids = ids(users);
+        DaoCaches.invalidate(getSession(), () -> ids.forEach(this.users::invalidate));
+        return results;
+    }
+
+    @Override
+    public void saveAll(Collection<User> users) {
+        delegate.saveAll(users);
+    }
+
+    @Override
+    public void updateAll(Collection<User> users) {
+        delegate.updateAll(users);
+        List<Integer> ids = ids(users);
+        DaoCaches.invalidate(getSession(), () -> ids.forEach(this.users::invalidate));
+    }
+
+    @Override
+    public void deleteAll(Collection<User> users) {
+        delegate.deleteAll(users);
+        List<Integer> ids = ids(users);
+        DaoCaches.invalidate(getSession(), () -> {
+            // See invalidateDeletedUser
+            ids.forEach(this.users::invalidate);
+            contacts.invalidateAll();
+            DaoCaches.userAddresses().invalidateAll();
+        });
+    }
+
+    @Override
+    public Set<User> getContacts(User user) {
+        Set<Integer> cached = contacts.get(user.getId());
+        if (cached != null) {
+            // The contacts come from the session, the users cache or the database as any user
+            return new HashSet<>(getAll(cached).values());
+        }
+
+        long stamp = contacts.stamp(user.getId());
+        Set<User> userContacts = delegate.getContacts(user);
+        if (DaoCaches.canCache(getSession())) {
+            Set<Integer> ids = userContacts.stream().map(User::getId).collect(Collectors.toSet());
+            contacts.putIfNotInvalidated(user.getId(), Collections.unmodifiableSet(ids), stamp);
+        }
+        return userContacts;
+    }
+
+    @Override
+    public void populateContacts(User user) {
+        user.setContacts(getContacts(user));
+    }
+
+    @Override
+    public void populateContacts(Collection<User> users) {
+        delegate.populateContacts(users);
+    }
+
+    @Override
+    public void addContact(User user, User contact) {
+        delegate.addContact(user, contact);
+        DaoCaches.invalidate(getSession(), () -> contacts.invalidate(user.getId()));
+    }
+
+    @Override
+    public void addContacts(User user, Collection<User> contacts) {
+        delegate.addContacts(user, contacts);
+        DaoCaches.invalidate(getSession(), () -> this.contacts.invalidate(user.getId()));
+    }
+
+    @Override
+    public boolean addContactIfAbsent(User user, User contact) {
+        boolean added = delegate.addContactIfAbsent(user, contact);
+        DaoCaches.invalidate(getSession(), () -> contacts.invalidate(user.getId()));
+        return added;
+    }
+
+    @Override
+    public void deleteContact(User user, User contact) {
+        delegate.deleteContact(user, contact);
+        DaoCaches.invalidate(getSession(), () -> contacts.invalidate(user.getId()));
+    }
+
+    /**
+     * Registers in the session a copy of a cached user, his contacts are loaded on the first read
+     * through this Dao, so they may come from the cache too. Once the session is closed they are loaded
+     * as the lazy contacts of the Dao's, see JDBCSession.lazyLoadingSession
+     */
+    private User fromCache(JDBCSession session, User cached) {
+        User copy = DaoCaches.copy(cached);
+        copy.setContactsLoader(() -> {
+            JDBCSession loadingSession = session.lazyLoadingSession("contacts of the users");
+            UserDao dao = loadingSession == session ? this : DaoFactory.buildUserDao(loadingSession);
+            dao.populateContacts(copy);
+        });
+        return session.registerEntity(User.class, copy.getId(), copy);
+    }
+
+    private void cache(User user, long stamp) {
+        if (DaoCaches.canCache(getSession())) {
+            users.putIfNotInvalidated(user.getId(), DaoCaches.copy(user), stamp);
+        }
+    }
+
+    /**
+     * Invalidates a deleted user and all the cached contacts: the contacts of the other users are deleted
+     * in cascade, and the cached ids of the deleted user would be looked up in the database on each read.
+     * The deletes are rare compared with the reads, so they pay for the whole contacts cache.
+     */
+    private void invalidateDeletedUser(Integer id) {
+        users.invalidate(id);
+        contacts.invalidateAll();
+    }
+
+    private static List<Integer> ids(Collection<User> users) {
+        return users.stream().map(User::getId).collect(Collectors.toList());
+    }
+
+    private JDBCSession getSession() {
+        return sessionSupplier.get();
+    }
+}
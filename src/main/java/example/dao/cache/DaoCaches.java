@@ -0,0 +1,96 @@
+package example.dao.cache;
+
+import example.jdbc.JDBCSession;
+import example.jdbc.JDBCUtils;
+import example.model.User;
+import example.model.UserAddress;
+
+import java.util.Set;
+
+/**
+ * Holds the caches shared by all the cached DAO's and the configuration from the jdbc properties
+ */
+public abstract class DaoCaches {
+
+    private static final String CACHE_ENABLED = "jdbc.cache.enabled";
+    private static final String CACHE_MAX_SIZE = "jdbc.cache.maxSize";
+    private static final String CACHE_TTL = "jdbc.cache.ttlMs";
+
+    private static final int CONCURRENCY = Runtime.getRuntime().availableProcessors() * 4;
+
+    private static final EntityCache<Integer, User> users = buildCache();
+    private static final EntityCache<Integer, Set<Integer>> contacts = buildCache();
+    private static final EntityCache<Integer, UserAddress> userAddresses = buildCache();
+
+    /**
+     * Indicates if the DaoFactory must wrap the DAO's with the cache
+     */
+    public static boolean isEnabled() {
+        return Boolean.parseBoolean(JDBCUtils.getProperty(CACHE_ENABLED, "false"));
+    }
+
+    public static EntityCache<Integer, User> users() {
+        return users;
+    }
+
+    /**
+     * Ids of the contacts of each user keyed by the id of the user. The contacts are read by id as any
+     * user, so a change of a user doesn't invalidate the contacts that include him
+     */
+    public static EntityCache<Integer, Set<Integer>> contacts() {
+        return contacts;
+    }
+
+    public static EntityCache<Integer, UserAddress> userAddresses() {
+        return userAddresses;
+    }
+
+    /**
+     * Executes the invalidation now and again when the transaction of the session finishes, so a value
+     * loaded by other thread before the commit can not stay in the cache
+     *
+     * @param session      session that executed the write
+     * @param invalidation Code that invalidates the cache
+     */
+    static void invalidate(JDBCSession session, Runnable invalidation) {
+        invalidation.run();
+
+        if (session.isInTransaction()) {
+            session.afterTransaction(invalidation);
+        }
+    }
+
+    /**
+     * Indicates if the values read by the session can be cached, values read inside a transaction may
+     * not be committed
+     */
+    static boolean canCache(JDBCSession session) {
+        return !session.isInTransaction();
+    }
+
+    static User copy(User user) {
+        User copy = new User(user.getName(), user.getEmail());
+        copy.setId(user.getId());
+        // The cached users have the values of the database
+        copy.clearChanges(User.ALL_PROPERTIES);
+        return copy;
+    }
+
+    static UserAddress copy(UserAddress userAddress) {
+        UserAddress copy = new UserAddress(userAddress.getAddress());
+        copy.setId(userAddress.getId());
+        // The lazy user is not loaded to fill the cache, the copy only keeps his id
+        if (userAddress.isUserLoaded() && userAddress.getUser() != null) {
+            copy.setUser(copy(userAddress.getUser()));
+        } else {
+            copy.setUserLoader(userAddress.getUserId(), null);
+        }
+        copy.clearChanges(UserAddress.ALL_PROPERTIES);
+        return copy;
+    }
+
+    private static <V> EntityCache<Integer, V> buildCache() {
+        return new EntityCache<>(JDBCUtils.getIntProperty(CACHE_MAX_SIZE, 10_000),
+                JDBCUtils.getLongProperty(CACHE_TTL, 300_000), CONCURRENCY);
+    }
+}
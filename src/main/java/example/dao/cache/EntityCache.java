@@ -0,0 +1,228 @@
+package example.dao.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded cache with LRU eviction and time to live shared by all the threads.
+ * <p>
+ * The entries are split in segments, each one with his own lock and LRU order, so the threads only
+ * compete when they access the same segment.
+ * <p>
+ * To avoid caching a value loaded before a concurrent invalidation, the readers take a stamp of the
+ * key before going to the database and put the value with putIfNotInvalidated.
+ *
+ * @param <K> Type of the keys
+ * @param <V> Type of the values
+ */
+public class EntityCache<K, V> {
+
+    private final Segment<K, V>[] segments;
+    private final long ttlNanos;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Creates a new cache
+     *
+     * @param maxSize     max amount of entries, approximated as it is divided between the segments
+     * @param ttlMs       time to live of the entries, 0 to never expire them
+     * @param concurrency expected amount of threads accessing the cache at the same time
+     */
+    public EntityCache(int maxSize, long ttlMs, int concurrency) {
+        int segmentCount = Integer.highestOneBit(Math.max(1, Math.min(concurrency, maxSize)) * 2 - 1);
+        int segmentSize = Math.max(1, maxSize / segmentCount);
+
+        @SuppressWarnings("unchecked")
+        Segment<K, V>[] segments = (Segment<K, V>[]) new Segment<?, ?>[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment<>(segmentSize, evictions);
+        }
+        this.segments = segments;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMs);
+    }
+
+    /**
+     * Gets the value of the key if it is cached and not expired
+     *
+     * @param key key of the value
+     * @return The value or null if it is not cached
+     */
+    public V get(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        segment.lock.lock();
+        try {
+            CacheEntry<V> entry = segment.entries.get(key);
+            if (entry != null && entry.isExpired(System.nanoTime())) {
+                segment.entries.remove(key);
+                entry = null;
+            }
+
+            if (entry == null) {
+                misses.increment();
+                return null;
+            }
+
+            hits.increment();
+            return entry.value;
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    /**
+     * Takes the stamp of a key before loading his value from the database
+     *
+     * @param key key of the value
+     * @return The stamp to use in putIfNotInvalidated
+     */
+    public long stamp(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        segment.lock.lock();
+        try {
+            return segment.invalidations;
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    /**
+     * Caches the value unless the key, or any other key of the same segment, was invalidated after
+     * taking the stamp
+     *
+     * @param key   key of the value
+     * @param value value to cache
+     * @param stamp stamp taken before loading the value
+     */
+    public void putIfNotInvalidated(K key, V value, long stamp) {
+        Segment<K, V> segment = segmentFor(key);
+        segment.lock.lock();
+        try {
+            if (segment.invalidations == stamp) {
+                segment.entries.put(key, new CacheEntry<>(value, ttlNanos > 0 ? System.nanoTime() + ttlNanos : 0));
+            }
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the value of the key from the cache
+     *
+     * @param key key of the value
+     */
+    public void invalidate(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        segment.lock.lock();
+        try {
+            segment.invalidations++;
+            segment.entries.remove(key);
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    /**
+     * Removes all the values from the cache
+     */
+    public void invalidateAll() {
+        for (Segment<K, V> segment : segments) {
+            segment.lock.lock();
+            try {
+                segment.invalidations++;
+                segment.entries.clear();
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment<K, V> segment : segments) {
+            segment.lock.lock();
+            try {
+                size += segment.entries.size();
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+        return size;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Ratio of the gets that found the value in the cache, between 0 and 1
+     */
+    public double getHitRatio() {
+        long hits = getHits();
+        long requests = hits + getMisses();
+        return requests == 0 ? 0 : (double) hits / requests;
+    }
+
+    @Override
+    public String toString() {
+        return "EntityCache{" +
+                "size=" + size() +
+                ", hits=" + getHits() +
+                ", misses=" + getMisses() +
+                ", evictions=" + getEvictions() +
+                ", hitRatio=" + getHitRatio() +
+                '}';
+    }
+
+    private Segment<K, V> segmentFor(K key) {
+        int hash = key.hashCode();
+        hash ^= hash >>> 16;
+        return segments[hash & (segments.length - 1)];
+    }
+
+    private static final class Segment<K, V> {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Map<K, CacheEntry<V>> entries;
+        private long invalidations = 0;
+
+        private Segment(int maxSize, LongAdder evictions) {
+            this.entries = new LinkedHashMap<K, CacheEntry<V>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<K, CacheEntry<V>> eldest) {
+                    if (size() > maxSize) {
+                        evictions.increment();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+    }
+
+    private static final class CacheEntry<V> {
+        private final V value;
+        private final long expiresAt;
+
+        private CacheEntry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+
+        private boolean isExpired(long now) {
+            return expiresAt != 0 && now - expiresAt >= 0;
+        }
+    }
+}
@@ -0,0 +1,575 @@
+package example.dao.graph;
+
+import example.jdbc.JDBCSession;
+import example.jdbc.JDBCUtils;
+import example.jdbc.ShardRouter;
+import example.jdbc.SimpleSQLException;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static java.lang.String.format;
+
+/**
+ * In-memory index of the contacts of the users to answer the graph queries without joins, e.g. the
+ * mutual contacts of two users or the contacts of the contacts.
+ * <p>
+ * The edges are kept in compressed sparse rows of primitive arrays: the sorted ids of the users, the
+ * offset of the row of each user and the ids of his contacts sorted by row, and the same in reverse to
+ * know who has a user as contact. A row is found with a binary search and read as a slice of the array,
+ * so a query doesn't allocate more than his result and doesn't box any id.
+ * <p>
+ * The changes are kept in small sorted sets of edges over the arrays, and once they are more than an
+ * eighth of the edges the arrays are rebuilt with them. The graph is safe to use from several threads,
+ * the queries share a read lock and the changes take the write lock.
+ * <p>
+ * The graph only sees the changes done through the ContactGraphUserDao, changes done by other processes
+ * need a reload.
+ */
+public final class ContactGraph {
+
+    private static final String SELECT_CONTACTS_QUERY =
+            "SELECT idUser, idContact FROM usercontact ORDER BY idUser, idContact";
+
+    private static final String CONTACT_GRAPH_ENABLED = "jdbc.contactGraph.enabled";
+
+    private static final int MIN_COMPACTION_DELTA = 1024;
+    private static final int[] NONE = new int[0];
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private Rows forward = Rows.build(new long[0], 0);
+    private Rows reverse = Rows.build(new long[0], 0);
+
+    // Edges not in the rows, encoded as user << 32 | contact, and the same in reverse
+    private final SortedLongSet added = new SortedLongSet();
+    private final SortedLongSet addedReverse = new SortedLongSet();
+
+    // Edges of the rows that were removed
+    private final SortedLongSet removed = new SortedLongSet();
+    private final SortedLongSet removedReverse = new SortedLongSet();
+
+    /**
+     * Builds an empty graph
+     */
+    public ContactGraph() {
+    }
+
+    /**
+     * Indicates if the User DAO's of DaoFactory keep the default graph up to date, see jdbc.contactGraph.enabled
+     */
+    public static boolean isEnabled() {
+        return Boolean.parseBoolean(JDBCUtils.getProperty(CONTACT_GRAPH_ENABLED, "false"));
+    }
+
+    /**
+     * Gets the graph shared by the DAO's of DaoFactory, it is loaded from the database on the first use
+     */
+    public static ContactGraph getDefault() {
+        return DefaultHolder.GRAPH;
+    }
+
+    /**
+     * Builds a graph with all the contacts of the database
+     *
+     * @param session session to read the contacts, with shards the contacts of every shard are read
+     * @return The loaded graph
+     */
+    public static ContactGraph load(JDBCSession session) {
+        ContactGraph graph = new ContactGraph();
+        graph.reload(session);
+        return graph;
+    }
+
+    /**
+     * Replaces the contacts of the graph with the contacts of the database
+     *
+     * @param session session to read the contacts, with shards the contacts of every shard are read
+     */
+    public void reload(JDBCSession session) {
+        EdgeBuffer edges = new EdgeBuffer();
+        ShardRouter router = JDBCUtils.getShardRouter();
+        if (router.isSharded()) {
+            for (int shard = 0; shard < router.getShardCount(); shard++) {
+                readEdges(session.getShardSession(shard), edges);
+            }
+        } else {
+            readEdges(session, edges);
+        }
+
+        lock.writeLock().lock();
+        try {
+            rebuild(edges);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Ids of the contacts of the user sorted
+     */
+    public int[] contactsOf(int idUser) {
+        lock.readLock().lock();
+        try {
+            return row(forward, added, removed, idUser);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Ids of the users that have the user as contact sorted
+     */
+    public int[] reverseContactsOf(int idUser) {
+        lock.readLock().lock();
+        try {
+            return row(reverse, addedReverse, removedReverse, idUser);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Ids of the contacts that both users have sorted
+     */
+    public int[] mutualContacts(int idUser, int idOtherUser) {
+        lock.readLock().lock();
+        try {
+            int[] contacts = row(forward, added, removed, idUser);
+            int[] otherContacts = row(forward, added, removed, idOtherUser);
+
+            int[] mutual = new int[Math.min(contacts.length, otherContacts.length)];
+            int size = 0;
+            for (int i = 0, j = 0; i < contacts.length && j < otherContacts.length; ) {
+                if (contacts[i] < otherContacts[j]) {
+                    i++;
+                } else if (contacts[i] > otherContacts[j]) {
+                    j++;
+                } else {
+                    mutual[size++] = contacts[i];
+                    i++;
+                    j++;
+                }
+            }
+            return size == mutual.length ? mutual : Arrays.copyOf(mutual, size);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Ids of the users reachable from the user following at most the given amount of contacts, e.g. with 2
+     * the contacts and the contacts of the contacts. The user is not included
+     *
+     * @param idUser user to start from
+     * @param hops   max amount of contacts to follow, at least 1
+     * @return The ids of the reachable users sorted
+     */
+    public int[] contactsWithinHops(int idUser, int hops) {
+        if (hops < 1) {
+            throw new IllegalArgumentException(format("The hops must be at least 1 but they are %d", hops));
+        }
+
+        lock.readLock().lock();
+        try {
+            IntHashSet visited = new IntHashSet(64);
+            visited.add(idUser);
+
+            int[] reached = new int[16];
+            int size = 0;
+            int[] frontier = {idUser};
+
+            for (int hop = 0; hop < hops && frontier.length > 0; hop++) {
+                int frontierStart = size;
+                for (int user : frontier) {
+                    for (int contact : row(forward, added, removed, user)) {
+                        if (visited.add(contact)) {
+                            if (size == reached.length) {
+                                reached = Arrays.copyOf(reached, size * 2);
+                            }
+                            reached[size++] = contact;
+                        }
+                    }
+                }
+                frontier = Arrays.copyOfRange(reached, frontierStart, size);
+            }
+
+            int[] result = Arrays.copyOf(reached, size);
+            Arrays.sort(result);
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean hasContact(int idUser, int idContact) {
+        long edge = edge(idUser, idContact);
+
+        lock.readLock().lock();
+        try {
+            return added.contains(edge) || (forward.contains(idUser, idContact) && !removed.contains(edge));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Amount of contacts of the user
+     */
+    public int degree(int idUser) {
+        lock.readLock().lock();
+        try {
+            return degree(forward, added, removed, idUser);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Amount of users that have the user as contact
+     */
+    public int reverseDegree(int idUser) {
+        lock.readLock().lock();
+        try {
+            return degree(reverse, addedReverse, removedReverse, idUser);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Statistics of the amount of contacts of the users with contacts
+     */
+    public Stats getStats() {
+        lock.readLock().lock();
+        try {
+            int[] degrees = new int[forward.vertices.length + added.size()];
+            int users = 0;
+            for (int vertex : forward.vertices) {
+                int degree = degree(forward, added, removed, vertex);
+                if (degree > 0) {
+                    degrees[users++] = degree;
+                }
+            }
+            for (int i = 0; i < added.size(); i++) {
+                int user = user(added.get(i));
+                if ((i == 0 || user(added.get(i - 1)) != user) && forward.indexOf(user) < 0) {
+                    degrees[users++] = degree(forward, added, removed, user);
+                }
+            }
+
+            degrees = Arrays.copyOf(degrees, users);
+            Arrays.sort(degrees);
+            return new Stats(degrees);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds the contact, it does nothing if the user already has it
+     */
+    public void addContact(int idUser, int idContact) {
+        lock.writeLock().lock();
+        try {
+            addEdge(idUser, idContact);
+            compactIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the contact, it does nothing if the user doesn't have it
+     */
+    public void removeContact(int idUser, int idContact) {
+        lock.writeLock().lock();
+        try {
+            removeEdge(idUser, idContact);
+            compactIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the contacts of the user and the user from the contacts of everyone, as deleting the user
+     */
+    public void removeUser(int idUser) {
+        lock.writeLock().lock();
+        try {
+            for (int contact : row(forward, added, removed, idUser)) {
+                removeEdge(idUser, contact);
+            }
+            for (int user : row(reverse, addedReverse, removedReverse, idUser)) {
+                removeEdge(user, idUser);
+            }
+            compactIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void addEdge(int idUser, int idContact) {
+        long edge = edge(idUser, idContact);
+        if (removed.remove(edge)) {
+            removedReverse.remove(edge(idContact, idUser));
+        } else if (!forward.contains(idUser, idContact) && added.add(edge)) {
+            addedReverse.add(edge(idContact, idUser));
+        }
+    }
+
+    private void removeEdge(int idUser, int idContact) {
+        long edge = edge(idUser, idContact);
+        if (added.remove(edge)) {
+            addedReverse.remove(edge(idContact, idUser));
+        } else if (forward.contains(idUser, idContact) && removed.add(edge)) {
+            removedReverse.add(edge(idContact, idUser));
+        }
+    }
+
+    private void compactIfNeeded() {
+        int delta = added.size() + removed.size();
+        if (delta > Math.max(MIN_COMPACTION_DELTA, forward.targets.length / 8)) {
+            EdgeBuffer edges = new EdgeBuffer();
+            for (int i = 0; i < forward.vertices.length; i++) {
+                int user = forward.vertices[i];
+                for (int j = forward.offsets[i]; j < forward.offsets[i + 1]; j++) {
+                    long edge = edge(user, forward.targets[j]);
+                    if (!removed.contains(edge)) {
+                        edges.add(edge);
+                    }
+                }
+            }
+            for (int i = 0; i < added.size(); i++) {
+                edges.add(added.get(i));
+            }
+            rebuild(edges);
+        }
+    }
+
+    private void rebuild(EdgeBuffer edges) {
+        long[] values = edges.values;
+        int size = edges.size;
+
+        Arrays.sort(values, 0, size);
+        forward = Rows.build(values, size);
+
+        for (int i = 0; i < size; i++) {
+            values[i] = edge(contact(values[i]), user(values[i]));
+        }
+        Arrays.sort(values, 0, size);
+        reverse = Rows.build(values, size);
+
+        added.clear();
+        addedReverse.clear();
+        removed.clear();
+        removedReverse.clear();
+    }
+
+    /**
+     * Reads the row of the user merging the added edges and skipping the removed ones
+     */
+    private static int[] row(Rows rows, SortedLongSet added, SortedLongSet removed, int idUser) {
+        int index = rows.indexOf(idUser);
+        int start = index < 0 ? 0 : rows.offsets[index];
+        int end = index < 0 ? 0 : rows.offsets[index + 1];
+        int addedStart = added.lowerBound(firstEdge(idUser));
+        int addedEnd = added.lowerBound(lastEdge(idUser));
+        int removedCount = removed.lowerBound(lastEdge(idUser)) - removed.lowerBound(firstEdge(idUser));
+
+        int length = end - start + addedEnd - addedStart - removedCount;
+        if (length == 0) {
+            return NONE;
+        }
+
+        int[] row = new int[length];
+        int size = 0;
+        int next = addedStart;
+        for (int i = start; i < end; i++) {
+            int target = rows.targets[i];
+            while (next < addedEnd && contact(added.get(next)) < target) {
+                row[size++] = contact(added.get(next++));
+            }
+            if (removedCount == 0 || !removed.contains(edge(idUser, target))) {
+                row[size++] = target;
+            }
+        }
+        while (next < addedEnd) {
+            row[size++] = contact(added.get(next++));
+        }
+        return row;
+    }
+
+    private static int degree(Rows rows, SortedLongSet added, SortedLongSet removed, int idUser) {
+        int index = rows.indexOf(idUser);
+        int length = index < 0 ? 0 : rows.offsets[index + 1] - rows.offsets[index];
+        return length
+                + added.lowerBound(lastEdge(idUser)) - added.lowerBound(firstEdge(idUser))
+                - (removed.lowerBound(lastEdge(idUser)) - removed.lowerBound(firstEdge(idUser)));
+    }
+
+    private static void readEdges(JDBCSession session, EdgeBuffer edges) {
+        try (PreparedStatement statement = session.prepareStreamingStatement(SELECT_CONTACTS_QUERY);
+             ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                edges.add(edge(resultSet.getInt(1), resultSet.getInt(2)));
+            }
+        } catch (SQLException e) {
+            throw new SimpleSQLException(e);
+        }
+    }
+
+    // The ids are positive, so the edges of a user are contiguous and sorted by contact
+
+    private static long edge(int idUser, int idContact) {
+        return ((long) idUser << 32) | (idContact & 0xFFFFFFFFL);
+    }
+
+    private static long firstEdge(int idUser) {
+        return (long) idUser << 32;
+    }
+
+    private static long lastEdge(int idUser) {
+        return ((long) idUser + 1) << 32;
+    }
+
+    private static int user(long edge) {
+        return (int) (edge >>> 32);
+    }
+
+    private static int contact(long edge) {
+        return (int) edge;
+    }
+
+    /**
+     * Compressed sparse rows: the row of vertices[i] is targets[offsets[i]] to targets[offsets[i + 1] - 1]
+     */
+    private static final class Rows {
+        private final int[] vertices;
+        private final int[] offsets;
+        private final int[] targets;
+
+        private Rows(int[] vertices, int[] offsets, int[] targets) {
+            this.vertices = vertices;
+            this.offsets = offsets;
+            this.targets = targets;
+        }
+
+        /**
+         * Builds the rows from sorted edges, the duplicated ones are ignored
+         */
+        static Rows build(long[] edges, int size) {
+            int[] vertices = new int[size];
+            int[] offsets = new int[size + 1];
+            int[] targets = new int[size];
+            int vertexCount = 0;
+            int targetCount = 0;
+
+            for (int i = 0; i < size; i++) {
+                if (i > 0 && edges[i] == edges[i - 1]) {
+                    continue;
+                }
+                int user = user(edges[i]);
+                if (vertexCount == 0 || vertices[vertexCount - 1] != user) {
+                    vertices[vertexCount] = user;
+                    offsets[vertexCount++] = targetCount;
+                }
+                targets[targetCount++] = contact(edges[i]);
+            }
+            offsets[vertexCount] = targetCount;
+
+            return new Rows(Arrays.copyOf(vertices, vertexCount), Arrays.copyOf(offsets, vertexCount + 1),
+                    Arrays.copyOf(targets, targetCount));
+        }
+
+        int indexOf(int vertex) {
+            return Arrays.binarySearch(vertices, vertex);
+        }
+
+        boolean contains(int vertex, int target) {
+            int index = indexOf(vertex);
+            return index >= 0 && Arrays.binarySearch(targets, offsets[index], offsets[index + 1], target) >= 0;
+        }
+    }
+
+    private static final class EdgeBuffer {
+        private long[] values = new long[1024];
+        private int size;
+
+        void add(long edge) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = edge;
+        }
+    }
+
+    private static class DefaultHolder {
+        private static final ContactGraph GRAPH = loadDefault();
+
+        private static ContactGraph loadDefault() {
+            try (JDBCSession session = JDBCSession.openDetached()) {
+                return load(session);
+            }
+        }
+    }
+
+    /**
+     * Statistics of the amount of contacts per user, only the users with contacts are counted
+     */
+    public static final class Stats {
+
+        private final int[] degrees;
+        private final long contacts;
+
+        private Stats(int[] sortedDegrees) {
+            this.degrees = sortedDegrees;
+            long contacts = 0;
+            for (int degree : sortedDegrees) {
+                contacts += degree;
+            }
+            this.contacts = contacts;
+        }
+
+        /**
+         * Users with at least one contact
+         */
+        public int getUsers() {
+            return degrees.length;
+        }
+
+        public long getContacts() {
+            return contacts;
+        }
+
+        public int getMaxDegree() {
+            return degrees.length == 0 ? 0 : degrees[degrees.length - 1];
+        }
+
+        public double getAverageDegree() {
+            return degrees.length == 0 ? 0 : (double) contacts / degrees.length;
+        }
+
+        /**
+         * Amount of contacts that the given percentage of the users don't exceed, e.g. 50 for the median
+         */
+        public int getPercentileDegree(double percentile) {
+            if (degrees.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percentile / 100 * degrees.length) - 1;
+            return degrees[Math.max(0, Math.min(index, degrees.length - 1))];
+        }
+
+        @Override
+        public String toString() {
+            return format("%d users, %d contacts, degree avg %.1f, p50 %d, p99 %d, max %d", getUsers(), contacts,
+                    getAverageDegree(), getPercentileDegree(50), getPercentileDegree(99), getMaxDegree());
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package example.dao.graph;
+
+import example.dao.UpsertResult;
+import example.dao.UserDao;
+import example.jdbc.JDBCSession;
+import example.model.User;
+
+import java.util.*;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * User Dao decorator that keeps a ContactGraph up to date with the contacts added and deleted through it.
+ * <p>
+ * The changes are applied to the graph once the transaction of the session is committed, or at once
+ * without transaction, so the graph never sees the contacts of a rolled back transaction.
+ */
+public class ContactGraphUserDao implements UserDao {
+
+    private final UserDao delegate;
+    private final ContactGraph graph;
+    private final Supplier<JDBCSession> sessionSupplier;
+
+    public ContactGraphUserDao(UserDao delegate, ContactGraph graph) {
+        this(delegate, graph, null);
+    }
+
+    /**
+     * Decorator that always uses the given session instead of the session bound to the current thread
+     *
+     * @param delegate Dao to decorate, it should use the same session
+     * @param graph    graph to update
+     * @param session  session of the Dao, null to use the session bound to the calling thread
+     */
+    public ContactGraphUserDao(UserDao delegate, ContactGraph graph, JDBCSession session) {
+        this.delegate = delegate;
+        this.graph = graph;
+        this.sessionSupplier = session == null ? JDBCSession::current : () -> session;
+    }
+
+    public ContactGraph getGraph() {
+        return graph;
+    }
+
+    @Override
+    public Optional<User> get(Integer id) {
+        return delegate.get(id);
+    }
+
+    @Override
+    public List<User> getAll() {
+        return delegate.getAll();
+    }
+
+    @Override
+    public Map<Integer, User> getAll(Collection<Integer> ids) {
+        return delegate.getAll(ids);
+    }
+
+    @Override
+    public List<User> getPage(Integer afterId, int limit) {
+        return delegate.getPage(afterId, limit);
+    }
+
+    @Override
+    public Stream<User> stream() {
+        return delegate.stream();
+    }
+
+    @Override
+    public Stream<User> parallelStream(int partitions) {
+        return delegate.parallelStream(partitions);
+    }
+
+    @Override
+    public void save(User user) {
+        delegate.save(user);
+    }
+
+    @Override
+    public void update(User user) {
+        delegate.update(user);
+    }
+
+    @Override
+    public void delete(User user) {
+        delegate.delete(user);
+        int id = user.getId();
+        afterCommit(() -> graph.removeUser(id));
+    }
+
+    @Override
+    public UpsertResult upsert(User user) {
+        return delegate.upsert(user);
+    }
+
+    @Override
+    public List<UpsertResult> upsertAll(Collection<User> users) {
+        return delegate.upsertAll(users);
+    }
+
+    @Override
+    public void saveAll(Collection<User> users) {
+        delegate.saveAll(users);
+    }
+
+    @Override
+    public void updateAll(Collection<User> users) {
+        delegate.updateAll(users);
+    }
+
+    @Override
+    public void deleteAll(Collection<User> users) {
+        delegate.deleteAll(users);
+        List<Integer> ids = users.stream().map(User::getId).collect(Collectors.toList());
+        afterCommit(() -> ids.forEach(graph::removeUser));
+    }
+
+    @Override
+    public Set<User> getContacts(User user) {
+        return delegate.getContacts(user);
+    }
+
+    @Override
+    public void populateContacts(User user) {
+        delegate.populateContacts(user);
+    }
+
+    @Override
+    public void populateContacts(Collection<User> users) {
+        delegate.populateContacts(users);
+    }
+
+    @Override
+    public void addContact(User user, User contact) {
+        delegate.addContact(user, contact);
+        int id = user.getId();
+        int idContact = contact.getId();
+        afterCommit(() -> graph.addContact(id, idContact));
+    }
+
+    @Override
+    public void addContacts(User user, Collection<User> contacts) {
+        delegate.addContacts(user, contacts);
+        int id = user.getId();
+        int[] idContacts = contacts.stream().mapToInt(User::getId).toArray();
+        afterCommit(() -> {
+            for (int idContact : idContacts) {
+                graph.addContact(id, idContact);
+            }
+        });
+    }
+
+    @Override
+    public boolean addContactIfAbsent(User user, User contact) {
+        boolean added = delegate.addContactIfAbsent(user, contact);
+        int id = user.getId();
+        int idContact = contact.getId();
+        afterCommit(() -> graph.addContact(id, idContact));
+        return added;
+    }
+
+    @Override
+    public void deleteContact(User user, User contact) {
+        delegate.deleteContact(user, contact);
+        int id = user.getId();
+        int idContact = contact.getId();
+        afterCommit(() -> graph.removeContact(id, idContact));
+    }
+
+    private void afterCommit(Runnable change) {
+        sessionSupplier.get().afterCommit(change);
+    }
+}
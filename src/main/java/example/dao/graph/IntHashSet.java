@@ -0,0 +1,93 @@
+package example.dao.graph;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing set of ints without boxing, used to mark the visited users of the traversals.
+ * It is not thread safe.
+ */
+final class IntHashSet {
+
+    private static final int FREE = Integer.MIN_VALUE;
+
+    private int[] slots;
+    private int size;
+    private boolean containsFree;
+
+    IntHashSet(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(expectedSize, 8) * 2 - 1) << 1;
+        this.slots = new int[capacity];
+        Arrays.fill(slots, FREE);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Adds the value
+     *
+     * @return true if the value was not in the set
+     */
+    boolean add(int value) {
+        if (value == FREE) {
+            boolean added = !containsFree;
+            containsFree = true;
+            size += added ? 1 : 0;
+            return added;
+        }
+
+        int mask = slots.length - 1;
+        int index = hash(value) & mask;
+        while (slots[index] != FREE) {
+            if (slots[index] == value) {
+                return false;
+            }
+            index = (index + 1) & mask;
+        }
+
+        slots[index] = value;
+        if (++size * 2 > slots.length) {
+            rehash();
+        }
+        return true;
+    }
+
+    boolean contains(int value) {
+        if (value == FREE) {
+            return containsFree;
+        }
+
+        int mask = slots.length - 1;
+        int index = hash(value) & mask;
+        while (slots[index] != FREE) {
+            if (slots[index] == value) {
+                return true;
+            }
+            index = (index + 1) & mask;
+        }
+        return false;
+    }
+
+    private void rehash() {
+        int[] old = slots;
+        slots = new int[old.length * 2];
+        Arrays.fill(slots, FREE);
+
+        int mask = slots.length - 1;
+        for (int value : old) {
+            if (value != FREE) {
+                int index = hash(value) & mask;
+                while (slots[index] != FREE) {
+                    index = (index + 1) & mask;
+                }
+                slots[index] = value;
+            }
+        }
+    }
+
+    private static int hash(int value) {
+        int h = value * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
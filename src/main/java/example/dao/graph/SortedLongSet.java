@@ -0,0 +1,67 @@
+package example.dao.graph;
+
+import java.util.Arrays;
+
+/**
+ * Set of longs kept in a sorted array, so the values of a range are contiguous and there is no boxing.
+ * <p>
+ * The inserts and the removes move the tail of the array, it is meant for the small amount of changes
+ * between two compactions of the ContactGraph. It is not thread safe.
+ */
+final class SortedLongSet {
+
+    private long[] values = new long[16];
+    private int size;
+
+    int size() {
+        return size;
+    }
+
+    long get(int index) {
+        return values[index];
+    }
+
+    boolean contains(long value) {
+        return Arrays.binarySearch(values, 0, size, value) >= 0;
+    }
+
+    boolean add(long value) {
+        int index = Arrays.binarySearch(values, 0, size, value);
+        if (index >= 0) {
+            return false;
+        }
+
+        index = -index - 1;
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        System.arraycopy(values, index, values, index + 1, size - index);
+        values[index] = value;
+        size++;
+        return true;
+    }
+
+    boolean remove(long value) {
+        int index = Arrays.binarySearch(values, 0, size, value);
+        if (index < 0) {
+            return false;
+        }
+
+        System.arraycopy(values, index + 1, values, index, size - index - 1);
+        size--;
+        return true;
+    }
+
+    /**
+     * Index of the first value greater or equal than the given one, size if there is none
+     */
+    int lowerBound(long value) {
+        int index = Arrays.binarySearch(values, 0, size, value);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    void clear() {
+        values = new long[16];
+        size = 0;
+    }
+}
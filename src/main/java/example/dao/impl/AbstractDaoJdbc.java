@@ -1,17 +1,460 @@
 package example.dao.impl;
 
+import example.dao.UpsertResult;
 import example.jdbc.JDBCSession;
+import example.jdbc.JDBCUtils;
+import example.jdbc.SimpleSQLException;
+import example.jdbc.RowMapper;
+import example.jdbc.SqlThrowableBiConsumer;
 
 import java.sql.*;
+import java.util.*;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import static java.lang.String.format;
 
 /**
  * Base Dao for the JDBC implementations of the DAO's to avoid duplicated code
  */
 abstract class AbstractDaoJdbc {
 
+    private static final String BATCH_SIZE = "jdbc.batch.size";
+    // Max amount of ids of an IN list, it must be a power of two
+    private static final int MAX_IN_LIST_SIZE = 256;
+
+    private final Supplier<JDBCSession> sessionSupplier;
+    private int batchSize = JDBCUtils.getIntProperty(BATCH_SIZE, 500);
+
+    /**
+     * Dao that uses the session bound to the calling thread
+     */
+    AbstractDaoJdbc() {
+        this(null);
+    }
+
+    /**
+     * Dao that always uses the given session, e.g. a detached session of a virtual thread
+     *
+     * @param session session of the Dao, null to use the session bound to the calling thread
+     */
+    AbstractDaoJdbc(JDBCSession session) {
+        this.sessionSupplier = session == null ? JDBCSession::current : () -> session;
+    }
+
+    /**
+     * Max amount of elements sent to the database in a single JDBC batch
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("The batch size must be at least 1");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Gets the session used by the Dao, his own session or the one bound to the current thread
+     */
+    JDBCSession getSession() {
+        return sessionSupplier.get();
+    }
+
     Connection getConnection() {
-        JDBCSession session = JDBCSession.current();
-        return session.getConnection();
+        return getSession().getConnection();
+    }
+
+    /**
+     * Retrieves a prepared statement from the statement cache of the current session
+     * <p>
+     * Note: the statement must not be closed, it is closed with the session
+     */
+    PreparedStatement prepareStatement(String sql) throws SQLException {
+        return getSession().prepareStatement(sql);
+    }
+
+    /**
+     * Retrieves a prepared statement from the statement cache of the current session
+     * <p>
+     * Note: the statement must not be closed, it is closed with the session
+     */
+    PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+        return getSession().prepareStatement(sql, autoGeneratedKeys);
+    }
+
+    /**
+     * Retrieves a prepared statement for a read only query from the current session, it may be
+     * prepared on a read replica
+     * <p>
+     * Note: the statement must not be closed, it is closed with the session
+     */
+    PreparedStatement prepareReadStatement(String sql) throws SQLException {
+        return getSession().prepareReadStatement(sql);
+    }
+
+    /**
+     * Executes a query with an IN list of ids in chunks of at most MAX_IN_LIST_SIZE ids.
+     * <p>
+     * The ids are deduplicated and every chunk is padded, repeating his last id, up to the next power of
+     * two, so only a few statement shapes are prepared and the statement cache keeps them warm.
+     *
+     * @param sqlTemplate query with a %s where the placeholders of the IN list must be placed
+     * @param ids         ids to bind in the IN list, null ids are ignored
+     * @param mapper      maps the rows of each chunk
+     * @return The parsed results of all the chunks
+     */
+    <T> List<T> getAllInChunks(String sqlTemplate, Collection<Integer> ids, RowMapper<T> mapper) {
+        List<Integer> distinctIds = new ArrayList<>(new LinkedHashSet<>(ids));
+        distinctIds.removeIf(Objects::isNull);
+        List<T> results = new ArrayList<>(distinctIds.size());
+
+        try {
+            for (int from = 0; from < distinctIds.size(); from += MAX_IN_LIST_SIZE) {
+                List<Integer> chunk = distinctIds.subList(from, Math.min(from + MAX_IN_LIST_SIZE, distinctIds.size()));
+                int shape = Integer.highestOneBit(chunk.size() * 2 - 1);
+
+                PreparedStatement statement = prepareReadStatement(format(sqlTemplate, JDBCUtils.placeholders(shape)));
+                for (int i = 0; i < shape; i++) {
+                    statement.setInt(i + 1, chunk.get(Math.min(i, chunk.size() - 1)));
+                }
+
+                results.addAll(JDBCUtils.getAllRows(statement.executeQuery(), mapper));
+            }
+        } catch (SQLException e) {
+            throw new SimpleSQLException(e);
+        }
+
+        return results;
+    }
+
+    /**
+     * Fetches the elements with the given ids in chunks and keys them by id in the order of the ids.
+     * <p>
+     * The elements already loaded by the current session are not fetched again
+     *
+     * @param type        type of the elements in the identity map of the session
+     * @param sqlTemplate query with a %s where the placeholders of the IN list must be placed
+     * @param ids         ids of the elements
+     * @param mapper      maps the rows of each chunk
+     * @param idGetter    gets the id of a parsed element
+     */
+    <T> Map<Integer, T> getAllById(Class<T> type, String sqlTemplate, Collection<Integer> ids,
+                                   RowMapper<T> mapper, Function<T, Integer> idGetter) {
+        JDBCSession session = getSession();
+        Map<Integer, T> found = new HashMap<>();
+        List<Integer> missing = new ArrayList<>();
+
+        for (Integer id : ids) {
+            T entity = session.getEntity(type, id);
+            if (entity != null) {
+                found.put(id, entity);
+            } else {
+                missing.add(id);
+            }
+        }
+
+        for (T value : getAllInChunks(sqlTemplate, missing, mapper)) {
+            found.put(idGetter.apply(value), value);
+        }
+
+        Map<Integer, T> results = new LinkedHashMap<>();
+        for (Integer id : ids) {
+            T value = found.get(id);
+            if (value != null) {
+                results.put(id, value);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Inserts or updates an element with an INSERT ... ON DUPLICATE KEY UPDATE, an element without id is
+     * saved to get the generated id
+     *
+     * @param type        type of the element in the identity map of the session
+     * @param value       element to upsert
+     * @param idGetter    gets the id of the element
+     * @param save        saves an element without id
+     * @param upsertQuery INSERT ... ON DUPLICATE KEY UPDATE of an element with id
+     * @param binder      binds the element to the upsert query
+     */
+    <T> UpsertResult upsert(Class<T> type, T value, Function<T, Integer> idGetter, Consumer<T> save,
+                            String upsertQuery, SqlThrowableBiConsumer<PreparedStatement, T> binder) {
+        Integer id = idGetter.apply(value);
+        if (id == null) {
+            save.accept(value);
+            return UpsertResult.INSERTED;
+        }
+
+        try {
+            PreparedStatement statement = prepareStatement(upsertQuery);
+            binder.accept(statement, value);
+            UpsertResult result = UpsertResult.fromAffectedRows(statement.executeUpdate());
+            registerEntity(type, id, value);
+            return result;
+        } catch (SQLException e) {
+            throw new SimpleSQLException(e);
+        }
+    }
+
+    /**
+     * Upserts the elements, see upsert. The elements without id are saved in batches, the elements with id
+     * are upserted one by one with the same statement: with rewriteBatchedStatements a batch is sent as a
+     * single statement and the driver only reports his total of affected rows, not the outcome of each row
+     *
+     * @return The outcome of each element in the order of the elements
+     */
+    <T> List<UpsertResult> upsertAll(Class<T> type, Collection<T> values, Function<T, Integer> idGetter,
+                                     Consumer<Collection<T>> saveAll, String upsertQuery,
+                                     SqlThrowableBiConsumer<PreparedStatement, T> binder) {
+        List<T> newValues = new ArrayList<>();
+        List<T> existingValues = new ArrayList<>();
+        for (T value : values) {
+            (idGetter.apply(value) == null ? newValues : existingValues).add(value);
+        }
+
+        if (!newValues.isEmpty()) {
+            saveAll.accept(newValues);
+        }
+
+        Map<T, UpsertResult> results = new IdentityHashMap<>();
+        newValues.forEach(value -> results.put(value, UpsertResult.INSERTED));
+
+        if (!existingValues.isEmpty()) {
+            try {
+                PreparedStatement statement = prepareStatement(upsertQuery);
+                for (T value : existingValues) {
+                    binder.accept(statement, value);
+                    results.put(value, UpsertResult.fromAffectedRows(statement.executeUpdate()));
+                    registerEntity(type, idGetter.apply(value), value);
+                }
+            } catch (SQLException e) {
+                throw new SimpleSQLException(e);
+            }
+        }
+
+        List<UpsertResult> ordered = new ArrayList<>(values.size());
+        values.forEach(value -> ordered.add(results.get(value)));
+        return ordered;
+    }
+
+    /**
+     * Builds the UPDATE of each combination of changed columns. The index of a query is the mask of his
+     * columns, where the column i is the bit 1 << i, and the index 0 without changes has no query
+     *
+     * @param table    table to update
+     * @param idColumn column of the id, the last parameter of the queries
+     * @param columns  columns that can be updated in the order of their bits
+     * @return The queries indexed by the mask of the changed columns
+     */
+    static String[] updateQueries(String table, String idColumn, String... columns) {
+        String[] queries = new String[1 << columns.length];
+        for (int mask = 1; mask < queries.length; mask++) {
+            StringJoiner set = new StringJoiner(", ");
+            for (int i = 0; i < columns.length; i++) {
+                if ((mask & (1 << i)) != 0) {
+                    set.add(columns[i] + " = ?");
+                }
+            }
+            queries[mask] = format("UPDATE %s SET %s WHERE %s = ?", table, set, idColumn);
+        }
+        return queries;
+    }
+
+    /**
+     * Updates only the changed columns of an element, if nothing changed the database is not called.
+     * The changes of the element are cleared once they are written, see ChangeTracking
+     *
+     * @param value    element to update
+     * @param tracking changes of the element, the bits are the columns
+     * @param queries  UPDATE of each mask, see updateQueries
+     * @param binder   binds the changed columns and the id of the element
+     */
+    <T> void updateChanges(T value, ChangeTracking<T> tracking, String[] queries, ChangesBinder<T> binder) {
+        int mask = tracking.changes(value);
+        if (mask == 0) {
+            return;
+        }
+
+        try {
+            PreparedStatement statement = prepareStatement(queries[mask]);
+            binder.bind(statement, value, mask);
+            statement.executeUpdate();
+            tracking.written(getSession(), value, mask);
+        } catch (SQLException e) {
+            throw new SimpleSQLException(e);
+        }
+    }
+
+    /**
+     * Updates the changed columns of the elements in a batch per combination of changed columns, the
+     * elements without changes are skipped. See updateChanges
+     */
+    <T> void updateAllChanges(Collection<T> values, ChangeTracking<T> tracking, String[] queries,
+                              ChangesBinder<T> binder) {
+        Map<Integer, List<T>> valuesByChanges = new LinkedHashMap<>();
+        for (T value : values) {
+            int mask = tracking.changes(value);
+            if (mask != 0) {
+                valuesByChanges.computeIfAbsent(mask, m -> new ArrayList<>()).add(value);
+            }
+        }
+
+        try {
+            for (Map.Entry<Integer, List<T>> entry : valuesByChanges.entrySet()) {
+                int mask = entry.getKey();
+                PreparedStatement statement = prepareStatement(queries[mask]);
+                JDBCUtils.executeBatch(statement, entry.getValue(), getBatchSize(),
+                        (s, value) -> binder.bind(s, value, mask), null);
+                entry.getValue().forEach(value -> tracking.written(getSession(), value, mask));
+            }
+        } catch (SQLException e) {
+            throw new SimpleSQLException(e);
+        }
+    }
+
+    /**
+     * Gets an entity loaded by the current session
+     */
+    <T> T findEntity(Class<T> type, Integer id) {
+        return getSession().getEntity(type, id);
+    }
+
+    /**
+     * Registers an entity in the current session, returning the instance loaded before if any
+     */
+    <T> T registerEntity(Class<T> type, Integer id, T entity) {
+        return getSession().registerEntity(type, id, entity);
     }
 
+    /**
+     * Removes an entity from the current session
+     */
+    void evictEntity(Class<?> type, Integer id) {
+        getSession().evictEntity(type, id);
+    }
+
+    /**
+     * Removes all the entities of a type from the current session
+     */
+    void evictEntities(Class<?> type) {
+        getSession().evictEntities(type);
+    }
+
+    /**
+     * Asserts that the limit of a page is valid
+     */
+    void assertPageLimit(int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("The limit of a page must be at least 1");
+        }
+    }
+
+    /**
+     * Streams the results of a query splitting the range of ids between the MIN and the MAX in partitions
+     * of the same width that are read in parallel. Each partition is read with his own session forked
+     * from the current one, so with his own connection, and the session is closed when the partition
+     * ends. The gaps in the ids may leave some partitions with less rows than others.
+     * <p>
+     * The partitions run on the threads of the parallel stream, the common fork-join pool unless the
+     * stream is consumed from another fork-join pool. At most the max size of the pool minus one partitions
+     * are read at the same time, the current session may hold the other connection, the rest wait for them.
+     * <p>
+     * Note: the stream must be closed after use it
+     *
+     * @param boundsQuery    query of the MIN and the MAX id
+     * @param partitionQuery query of the rows with the ids between the two parameters, both included
+     * @param mapper         maps the rows without the session, it is called from several threads
+     * @param partitions     amount of partitions
+     */
+    <T> Stream<T> parallelStream(String boundsQuery, String partitionQuery, RowMapper<T> mapper, int partitions) {
+        if (partitions < 1) {
+            throw new IllegalArgumentException("The partitions must be at least 1");
+        }
+
+        JDBCSession session = getSession();
+        long min;
+        long max;
+        try {
+            PreparedStatement statement = session.prepareReadStatement(boundsQuery);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                resultSet.next();
+                min = resultSet.getLong(1);
+                if (resultSet.wasNull()) {
+                    return Stream.empty();
+                }
+                max = resultSet.getLong(2);
+            }
+        } catch (SQLException e) {
+            throw new SimpleSQLException(e);
+        }
+
+        long width = Math.max(1, (max - min + partitions) / partitions);
+        List<long[]> ranges = new ArrayList<>(partitions);
+        for (long from = min; from <= max; from += width) {
+            ranges.add(new long[]{from, Math.min(from + width - 1, max)});
+        }
+
+        Semaphore connections = new Semaphore(Math.max(1, session.getPoolMaxSize() - 1));
+        return ranges.parallelStream()
+                .flatMap(range -> streamPartition(session, partitionQuery, range, mapper, connections));
+    }
+
+    private static <T> Stream<T> streamPartition(JDBCSession session, String sql, long[] range, RowMapper<T> mapper,
+                                                 Semaphore connections) {
+        try {
+            connections.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for a connection for the partition", e);
+        }
+
+        JDBCSession partitionSession = session.fork();
+        Runnable close = () -> {
+            try {
+                partitionSession.close();
+            } finally {
+                connections.release();
+            }
+        };
+        try {
+            PreparedStatement statement = partitionSession.prepareStreamingStatement(sql);
+            statement.setLong(1, range[0]);
+            statement.setLong(2, range[1]);
+            return JDBCUtils.stream(statement, mapper).onClose(close);
+        } catch (SQLException e) {
+            close.run();
+            throw new SimpleSQLException(e);
+        } catch (RuntimeException e) {
+            close.run();
+            throw e;
+        }
+    }
+
+    /**
+     * Streams the results of a query without parameters with a streaming statement of the current session
+     * <p>
+     * Note: the stream must be closed after use it
+     */
+    <T> Stream<T> stream(String sql, RowMapper<T> mapper) {
+        try {
+            return JDBCUtils.stream(getSession().prepareStreamingStatement(sql), mapper);
+        } catch (SQLException e) {
+            throw new SimpleSQLException(e);
+        }
+    }
+
+    /**
+     * Binds the changed columns of an element and his id to the UPDATE of the changes
+     */
+    @FunctionalInterface
+    interface ChangesBinder<T> {
+        void bind(PreparedStatement statement, T value, int changes) throws SQLException;
+    }
 }
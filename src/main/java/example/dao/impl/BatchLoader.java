@@ -0,0 +1,83 @@
+package example.dao.impl;
+
+import example.jdbc.JDBCSession;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+
+/**
+ * Loads a lazy association of the entities read together, e.g. by the same query, in batches.
+ * <p>
+ * The first entity that reads the association loads it for all the entities of his batch that don't
+ * have it yet, so iterating the results doesn't do a query per entity. The batches have a max size, so
+ * a stream doesn't retain all his entities, and once loaded a batch doesn't retain them either.
+ * <p>
+ * The association is loaded with the session that loaded the entities while it is open, otherwise with
+ * the session opened in the thread that reads it, see JDBCSession.lazyLoadingSession.
+ *
+ * @param <T> Type of the entities
+ * @param <K> Type of the key to load the association of an entity, e.g. the id of the owner
+ */
+final class BatchLoader<T, K> {
+
+    private final JDBCSession session;
+    private final String association;
+    private final Predicate<T> loaded;
+    private final BiConsumer<JDBCSession, Map<T, K>> loadAll;
+    private final int maxBatchSize;
+    private Batch current = new Batch();
+
+    /**
+     * @param session      session that loaded the entities
+     * @param association  description of the association for the errors, e.g. "contacts of the users"
+     * @param loaded       indicates if an entity already has the association
+     * @param loadAll      loads with the given session the association of the entities with their keys
+     * @param maxBatchSize max amount of entities loaded together
+     */
+    BatchLoader(JDBCSession session, String association, Predicate<T> loaded,
+                BiConsumer<JDBCSession, Map<T, K>> loadAll, int maxBatchSize) {
+        this.session = session;
+        this.association = association;
+        this.loaded = loaded;
+        this.loadAll = loadAll;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Adds the entity to the current batch
+     *
+     * @return The loader of the association of the entity, it loads the whole batch
+     */
+    Runnable add(T entity, K key) {
+        if (current.pending.size() >= maxBatchSize) {
+            current = new Batch();
+        }
+
+        Batch batch = current;
+        batch.pending.put(entity, key);
+        return batch::load;
+    }
+
+    private final class Batch {
+        private Map<T, K> pending = new IdentityHashMap<>();
+
+        void load() {
+            JDBCSession loadingSession = session.lazyLoadingSession(association);
+            Map<T, K> entities = pending;
+            pending = new IdentityHashMap<>();
+
+            entities.keySet().removeIf(loaded);
+            if (!entities.isEmpty()) {
+                try {
+                    loadAll.accept(loadingSession, entities);
+                } catch (RuntimeException e) {
+                    // The next entity that reads the association tries again
+                    pending.putAll(entities);
+                    throw e;
+                }
+            }
+        }
+    }
+}
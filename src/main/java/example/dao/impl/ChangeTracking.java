@@ -0,0 +1,48 @@
+package example.dao.impl;
+
+import example.jdbc.JDBCSession;
+
+import java.util.function.ObjIntConsumer;
+import java.util.function.ToIntFunction;
+
+/**
+ * Access to the changes tracked by an entity, as a mask of bits of his properties.
+ * <p>
+ * The changes are cleared as soon as they are written, so the properties changed later in the same
+ * transaction are written by the next update, and they are restored if the transaction is rolled back.
+ *
+ * @param <T> Type of the entity
+ */
+final class ChangeTracking<T> {
+
+    private final ToIntFunction<T> changes;
+    private final ObjIntConsumer<T> clear;
+    private final ObjIntConsumer<T> restore;
+
+    /**
+     * @param changes gets the mask of the changed properties
+     * @param clear   clears the properties of the mask
+     * @param restore marks the properties of the mask as changed again
+     */
+    ChangeTracking(ToIntFunction<T> changes, ObjIntConsumer<T> clear, ObjIntConsumer<T> restore) {
+        this.changes = changes;
+        this.clear = clear;
+        this.restore = restore;
+    }
+
+    int changes(T value) {
+        return changes.applyAsInt(value);
+    }
+
+    /**
+     * Clears the written properties now and restores them if the transaction of the session is rolled back
+     *
+     * @param session session that wrote the properties
+     * @param value   entity written
+     * @param mask    properties written
+     */
+    void written(JDBCSession session, T value, int mask) {
+        clear.accept(value, mask);
+        session.afterRollback(() -> restore.accept(value, mask));
+    }
+}
@@ -0,0 +1,257 @@
+package example.dao.impl;
+
+import example.dao.Dao;
+import example.dao.UpsertResult;
+import example.jdbc.JDBCSession;
+import example.jdbc.JDBCUtils;
+import example.jdbc.RowMapper;
+import example.jdbc.SimpleSQLException;
+import example.jdbc.mapping.EntityMapping;
+
+import java.sql.*;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static java.lang.String.format;
+
+/**
+ * JDBC implementation of the Dao of any entity mapped by convention with an EntityMapping.
+ * <p>
+ * The queries, the row mapper and the binders are generated once from the mapping, so a new simple
+ * entity only needs his class to have a Dao. Entities with associations still need their own Dao.
+ *
+ * @param <T> Type of the entity
+ */
+public class GenericDaoJdbc<T> extends AbstractDaoJdbc implements Dao<T, Integer> {
+
+    private final EntityMapping<T> mapping;
+    private final RowMapper<T> rowMapper;
+    private final RowMapper<T> streamRowMapper;
+    private final RowMapper<T> scanRowMapper;
+
+    private final String selectOneQuery;
+    private final String selectAllQuery;
+    private final String selectIdsQuery;
+    private final String selectFirstPageQuery;
+    private final String selectPageQuery;
+    private final String selectBoundsQuery;
+    private final String selectRangeQuery;
+    private final String insertQuery;
+    private final String upsertQuery;
+    private final String updateQuery;
+    private final String deleteQuery;
+
+    public GenericDaoJdbc(Class<T> type) {
+        this(type, null);
+    }
+
+    /**
+     * Dao that always uses the given session instead of the session bound to the current thread
+     */
+    public GenericDaoJdbc(Class<T> type, JDBCSession session) {
+        super(session);
+        this.mapping = EntityMapping.of(type);
+        this.rowMapper = mapping.rowMapper(this::getSession, true);
+        this.streamRowMapper = mapping.rowMapper(this::getSession, false);
+        this.scanRowMapper = mapping.rowMapper(() -> null, false);
+
+        String table = mapping.getTable();
+        String id = mapping.getIdColumn();
+        List<String> columns = mapping.getColumns();
+        List<String> allColumns = new ArrayList<>(columns);
+        allColumns.add(0, id);
+
+        String select = "SELECT " + id + (columns.isEmpty() ? "" : ", " + String.join(", ", columns))
+                + " FROM " + table;
+        this.selectOneQuery = select + " WHERE " + id + " = ?";
+        this.selectAllQuery = select;
+        // The template keeps the %s of the IN list for getAllInChunks
+        this.selectIdsQuery = select.replace("%", "%%") + " WHERE " + id + " IN (%s)";
+        this.selectFirstPageQuery = select + " ORDER BY " + id + " LIMIT ?";
+        this.selectPageQuery = select + " WHERE " + id + " > ? ORDER BY " + id + " LIMIT ?";
+        this.selectBoundsQuery = format("SELECT MIN(%s), MAX(%s) FROM %s", id, id, table);
+        this.selectRangeQuery = select + " WHERE " + id + " BETWEEN ? AND ?";
+        this.insertQuery = columns.isEmpty()
+                ? format("INSERT INTO %s() VALUES ()", table)
+                : format("INSERT INTO %s(%s) VALUES (%s)", table, String.join(", ", columns),
+                JDBCUtils.placeholders(columns.size()));
+        this.upsertQuery = format("INSERT INTO %s(%s) VALUES (%s) ON DUPLICATE KEY UPDATE %s", table,
+                String.join(", ", allColumns), JDBCUtils.placeholders(allColumns.size()), columns.isEmpty()
+                        ? id + " = " + id
+                        : columns.stream().map(column -> column + " = VALUES(" + column + ")")
+                        .collect(Collectors.joining(", ")));
+        this.updateQuery = columns.isEmpty() ? null : format("UPDATE %s SET %s WHERE %s = ?", table,
+                columns.stream().map(column -> column + " = ?").collect(Collectors.joining(", ")), id);
+        this.deleteQuery = format("DELETE FROM %s WHERE %s = ?", table, id);
+    }
+
+    @Override
+    public Optional<T> get(Integer id) {
+        T known = findEntity(mapping.getType(), id);
+        if (known != null) {
+            return Optional.of(known);
+        }
+
+        try {
+            PreparedStatement statement = prepareReadStatement(selectOneQuery);
+
+            statement.setInt(1, id);
+            return JDBCUtils.getSingleRow(statement.executeQuery(), rowMapper);
+        } catch (SQLException e) {
+            throw new SimpleSQLException(e);
+        }
+    }
+
+    @Override
+    public List<T> getAll() {
+        try {
+            PreparedStatement statement = prepareReadStatement(selectAllQuery);
+
+            return JDBCUtils.getAllRows(statement.executeQuery(), rowMapper);
+        } catch (SQLException e) {
+            throw new SimpleSQLException(e);
+        }
+    }
+
+    @Override
+    public Map<Integer, T> getAll(Collection<Integer> ids) {
+        return getAllById(mapping.getType(), selectIdsQuery, ids, rowMapper, mapping::getId);
+    }
+
+    @Override
+    public List<T> getPage(Integer afterId, int limit) {
+        assertPageLimit(limit);
+
+        try {
+            PreparedStatement statement;
+            if (afterId == null) {
+                statement = prepareReadStatement(selectFirstPageQuery);
+                statement.setInt(1, limit);
+            } else {
+                statement = prepareReadStatement(selectPageQuery);
+                statement.setInt(1, afterId);
+                statement.setInt(2, limit);
+            }
+
+            return JDBCUtils.getAllRows(statement.executeQuery(), rowMapper);
+        } catch (SQLException e) {
+            throw new SimpleSQLException(e);
+        }
+    }
+
+    @Override
+    public Stream<T> stream() {
+        return stream(selectAllQuery, streamRowMapper);
+    }
+
+    @Override
+    public Stream<T> parallelStream(int partitions) {
+        return parallelStream(selectBoundsQuery, selectRangeQuery, scanRowMapper, partitions);
+    }
+
+    @Override
+    public void save(T entity) {
+        try {
+            PreparedStatement statement = prepareStatement(insertQuery, Statement.RETURN_GENERATED_KEYS);
+
+            mapping.bindColumns(statement, entity, 1);
+            JDBCUtils.assetInsert(statement.executeUpdate());
+
+            Integer id = JDBCUtils.getGeneratedId(statement, (rs) -> rs.getInt(1));
+
+            mapping.setId(entity, id);
+            registerEntity(mapping.getType(), id, entity);
+        } catch (SQLException e) {
+            throw new SimpleSQLException(e);
+        }
+    }
+
+    @Override
+    public void update(T entity) {
+        if (updateQuery == null) {
+            return;
+        }
+
+        try {
+            PreparedStatement statement = prepareStatement(updateQuery);
+            bindUpdate(statement, entity);
+            statement.executeUpdate();
+        } catch (SQLException e) {
+            throw new SimpleSQLException(e);
+        }
+    }
+
+    @Override
+    public void delete(T entity) {
+        try {
+            PreparedStatement statement = prepareStatement(deleteQuery);
+            statement.setInt(1, mapping.getId(entity));
+            statement.executeUpdate();
+            evictEntity(mapping.getType(), mapping.getId(entity));
+        } catch (SQLException e) {
+            throw new SimpleSQLException(e);
+        }
+    }
+
+    @Override
+    public UpsertResult upsert(T entity) {
+        return upsert(mapping.getType(), entity, mapping::getId, this::save, upsertQuery, this::bindUpsert);
+    }
+
+    @Override
+    public List<UpsertResult> upsertAll(Collection<T> entities) {
+        return upsertAll(mapping.getType(), entities, mapping::getId, this::saveAll, upsertQuery, this::bindUpsert);
+    }
+
+    @Override
+    public void saveAll(Collection<T> entities) {
+        try {
+            PreparedStatement statement = prepareStatement(insertQuery, Statement.RETURN_GENERATED_KEYS);
+
+            JDBCUtils.assetBatchInsert(JDBCUtils.executeBatch(statement, entities, getBatchSize(),
+                    (s, entity) -> mapping.bindColumns(s, entity, 1), (entity, rs) -> {
+                        mapping.setId(entity, rs.getInt(1));
+                        registerEntity(mapping.getType(), mapping.getId(entity), entity);
+                    }));
+        } catch (SQLException e) {
+            throw new SimpleSQLException(e);
+        }
+    }
+
+    @Override
+    public void updateAll(Collection<T> entities) {
+        if (updateQuery == null) {
+            return;
+        }
+
+        try {
+            PreparedStatement statement = prepareStatement(updateQuery);
+            JDBCUtils.executeBatch(statement, entities, getBatchSize(), this::bindUpdate, null);
+        } catch (SQLException e) {
+            throw new SimpleSQLException(e);
+        }
+    }
+
+    @Override
+    public void deleteAll(Collection<T> entities) {
+        try {
+            PreparedStatement statement = prepareStatement(deleteQuery);
+            JDBCUtils.executeBatch(statement, entities, getBatchSize(),
+                    (s, entity) -> s.setInt(1, mapping.getId(entity)), null);
+            entities.forEach(entity -> evictEntity(mapping.getType(), mapping.getId(entity)));
+        } catch (SQLException e) {
+            throw new SimpleSQLException(e);
+        }
+    }
+
+    private void bindUpsert(PreparedStatement statement, T entity) throws SQLException {
+        statement.setInt(1, mapping.getId(entity));
+        mapping.bindColumns(statement, entity, 2);
+    }
+
+    private void bindUpdate(PreparedStatement statement, T entity) throws SQLException {
+        int parameter = mapping.bindColumns(statement, entity, 1);
+        statement.setInt(parameter, mapping.getId(entity));
+    }
+}
@@ -1,36 +1,88 @@
 package example.dao.impl;
 
+import example.dao.DaoFactory;
+import example.dao.UpsertResult;
 import example.dao.UserAddressDao;
+import example.dao.UserDao;
+import example.jdbc.JDBCSession;
 import example.jdbc.JDBCUtils;
 import example.jdbc.SimpleSQLException;
+import example.jdbc.SqlThrowableFunction;
 import example.model.User;
 import example.model.UserAddress;
 
 import java.sql.*;
-import java.util.List;
-import java.util.Optional;
+import java.util.*;
+import java.util.stream.Stream;
 
 /**
  * JDBC implementation of the UserAddress Model Dao
  */
 public class UserAddressDaoJdbc extends AbstractDaoJdbc implements UserAddressDao {
 
-    private static final String SELECT_ONE_QUERY = "SELECT * FROM useraddress where idUserAddress = ?";
-    private static final String SELECT_ALL_QUERY = "SELECT * FROM useraddress";
-    private static final String SELECT_ALL_USER_QUERY = "SELECT * FROM useraddress where idUser = ?";
+    private static final String COLUMNS = "idUserAddress, idUser, address";
+    private static final String SELECT_ONE_QUERY = "SELECT " + COLUMNS + " FROM useraddress where idUserAddress = ?";
+    private static final String SELECT_ALL_QUERY = "SELECT " + COLUMNS + " FROM useraddress";
+    private static final String SELECT_IDS_QUERY = "SELECT " + COLUMNS + " FROM useraddress " +
+            "WHERE idUserAddress IN (%s)";
+    private static final String SELECT_BOUNDS_QUERY = "SELECT MIN(idUserAddress), MAX(idUserAddress) " +
+            "FROM useraddress";
+    private static final String SELECT_RANGE_QUERY = "SELECT " + COLUMNS + " FROM useraddress " +
+            "WHERE idUserAddress BETWEEN ? AND ?";
+    private static final String SELECT_ALL_USER_QUERY = "SELECT " + COLUMNS + " FROM useraddress where idUser = ?";
+    private static final String SELECT_ALL_USERS_QUERY = "SELECT " + COLUMNS + " FROM useraddress " +
+            "where idUser IN (%s)";
+    private static final String SELECT_FIRST_PAGE_QUERY = "SELECT " + COLUMNS + " FROM useraddress " +
+            "ORDER BY idUserAddress LIMIT ?";
+    private static final String SELECT_PAGE_QUERY = "SELECT " + COLUMNS + " FROM useraddress " +
+            "WHERE idUserAddress > ? ORDER BY idUserAddress LIMIT ?";
+    private static final String SELECT_FIRST_USER_PAGE_QUERY = "SELECT " + COLUMNS + " FROM useraddress " +
+            "WHERE idUser = ? ORDER BY idUserAddress LIMIT ?";
+    private static final String SELECT_USER_PAGE_QUERY = "SELECT " + COLUMNS + " FROM useraddress " +
+            "WHERE idUser = ? AND idUserAddress > ? ORDER BY idUserAddress LIMIT ?";
     private static final String INSERT_QUERY = "INSERT INTO useraddress(idUser, address) VALUES (?, ?)";
-    private static final String UPDATE_QUERY = "UPDATE useraddress SET address = ? WHERE idUserAddress= ?";
+    private static final String UPSERT_QUERY = "INSERT INTO useraddress(idUserAddress, idUser, address) " +
+            "VALUES (?, ?, ?) ON DUPLICATE KEY UPDATE address = VALUES(address)";
+    // The UPDATE of each combination of changed properties, the bits of the columns are the ones of UserAddress
+    private static final String[] UPDATE_QUERIES = updateQueries("useraddress", "idUserAddress", "address");
+    private static final ChangeTracking<UserAddress> CHANGES = new ChangeTracking<>(
+            UserAddress::changedProperties, UserAddress::clearChanges, UserAddress::restoreChanges);
     private static final String DELETE_QUERY = "DELETE FROM useraddress WHERE idUserAddress = ?";
 
+    private UserDao userDao;
+
+    public UserAddressDaoJdbc() {
+        this.userDao = new UserDaoJdbc();
+    }
+
+    /**
+     * Dao that always uses the given session instead of the session bound to the current thread
+     */
+    public UserAddressDaoJdbc(JDBCSession session) {
+        super(session);
+        this.userDao = new UserDaoJdbc(session);
+    }
+
+    /**
+     * Sets the Dao that loads the lazy users of the addresses of this Dao, by default a User Dao with the
+     * same session. E.g. the sharded Dao, so the contacts of the users are loaded from every shard
+     */
+    public void setUserDao(UserDao userDao) {
+        this.userDao = userDao;
+    }
+
     @Override
     public Optional<UserAddress> get(Integer id) {
+        UserAddress known = findEntity(UserAddress.class, id);
+        if (known != null) {
+            return Optional.of(known);
+        }
 
-        Connection connection = getConnection();
-
-        try (PreparedStatement statement = connection.prepareStatement(SELECT_ONE_QUERY)) {
+        try {
+            PreparedStatement statement = prepareReadStatement(SELECT_ONE_QUERY);
 
             statement.setInt(1, id);
-            return JDBCUtils.getSingleValue(statement.executeQuery(), this::buildUserFromResultSet);
+            return JDBCUtils.getSingleRow(statement.executeQuery(), this::buildUserFromResultSet);
         } catch (SQLException e) {
             throw new SimpleSQLException(e);
         }
@@ -38,86 +90,311 @@ public class UserAddressDaoJdbc extends AbstractDaoJdbc implements UserAddressDa
 
     @Override
     public List<UserAddress> getAll() {
-        Connection connection = getConnection();
+        try {
+            PreparedStatement statement = prepareReadStatement(SELECT_ALL_QUERY);
 
-        try (PreparedStatement statement = connection.prepareStatement(SELECT_ALL_QUERY)) {
+            return JDBCUtils.getAllRows(statement.executeQuery(), this::buildUserFromResultSet);
+        } catch (SQLException e) {
+            throw new SimpleSQLException(e);
+        }
+    }
 
-            return JDBCUtils.getAllValues(statement.executeQuery(), this::buildUserFromResultSet);
+    @Override
+    public Map<Integer, UserAddress> getAll(Collection<Integer> ids) {
+        return getAllById(UserAddress.class, SELECT_IDS_QUERY, ids,
+                this::buildUserFromResultSet, UserAddress::getId);
+    }
+
+    @Override
+    public List<UserAddress> getPage(Integer afterId, int limit) {
+        assertPageLimit(limit);
+
+        try {
+            PreparedStatement statement;
+            if (afterId == null) {
+                statement = prepareReadStatement(SELECT_FIRST_PAGE_QUERY);
+                statement.setInt(1, limit);
+            } else {
+                statement = prepareReadStatement(SELECT_PAGE_QUERY);
+                statement.setInt(1, afterId);
+                statement.setInt(2, limit);
+            }
+
+            return JDBCUtils.getAllRows(statement.executeQuery(), this::buildUserFromResultSet);
         } catch (SQLException e) {
             throw new SimpleSQLException(e);
         }
     }
 
     @Override
-    public List<UserAddress> getForUser(User user) {
-        Connection connection = getConnection();
+    public Stream<UserAddress> stream() {
+        return stream(SELECT_ALL_QUERY, this::readUserFromResultSet);
+    }
+
+    @Override
+    public Stream<UserAddress> parallelStream(int partitions) {
+        return parallelStream(SELECT_BOUNDS_QUERY, SELECT_RANGE_QUERY, this::scanUserFromResultSet, partitions);
+    }
 
-        try (PreparedStatement statement = connection.prepareStatement(SELECT_ALL_USER_QUERY)) {
+    @Override
+    public List<UserAddress> getForUser(User user) {
+        try {
+            PreparedStatement statement = prepareReadStatement(SELECT_ALL_USER_QUERY);
 
             statement.setInt(1, user.getId());
-            return JDBCUtils.getAllValues(statement.executeQuery(), this::buildUserFromResultSet);
+            return withUser(JDBCUtils.getAllRows(statement.executeQuery(), this::buildUserFromResultSet), user);
         } catch (SQLException e) {
             throw new SimpleSQLException(e);
         }
     }
 
     @Override
-    public void save(UserAddress userAddress) {
-        Connection connection = getConnection();
+    public Map<User, List<UserAddress>> getForUsers(Collection<User> users) {
+        Map<User, List<UserAddress>> addresses = new LinkedHashMap<>();
+        Map<Integer, User> owners = new HashMap<>();
+
+        for (User user : users) {
+            addresses.put(user, new ArrayList<>());
+            owners.putIfAbsent(user.getId(), user);
+        }
+
+        getAllInChunks(SELECT_ALL_USERS_QUERY, owners.keySet(), resultSet -> {
+            int ownerColumn = JDBCUtils.columnIndexes(resultSet, "idUser")[0];
+            SqlThrowableFunction<ResultSet, UserAddress> userAddressParser = buildUserFromResultSet(resultSet);
+
+            return rs -> {
+                UserAddress userAddress = userAddressParser.apply(rs);
+                User owner = owners.get(rs.getInt(ownerColumn));
+
+                userAddress.setUser(owner);
+                addresses.get(owner).add(userAddress);
+                return userAddress;
+            };
+        });
+
+        return addresses;
+    }
+
+    @Override
+    public List<UserAddress> getForUser(User user, Integer afterId, int limit) {
+        assertPageLimit(limit);
+
+        try {
+            PreparedStatement statement;
+            if (afterId == null) {
+                statement = prepareReadStatement(SELECT_FIRST_USER_PAGE_QUERY);
+                statement.setInt(1, user.getId());
+                statement.setInt(2, limit);
+            } else {
+                statement = prepareReadStatement(SELECT_USER_PAGE_QUERY);
+                statement.setInt(1, user.getId());
+                statement.setInt(2, afterId);
+                statement.setInt(3, limit);
+            }
 
-        try (PreparedStatement statement = connection
-                .prepareStatement(INSERT_QUERY, Statement.RETURN_GENERATED_KEYS)) {
+            return withUser(JDBCUtils.getAllRows(statement.executeQuery(), this::buildUserFromResultSet), user);
+        } catch (SQLException e) {
+            throw new SimpleSQLException(e);
+        }
+    }
 
-            statement.setInt(1, userAddress.getUser().getId());
-            statement.setString(2, userAddress.getAddress());
+    @Override
+    public void save(UserAddress userAddress) {
+        try {
+            PreparedStatement statement = prepareStatement(INSERT_QUERY, Statement.RETURN_GENERATED_KEYS);
+
+            bindInsert(statement, userAddress);
             JDBCUtils.assetInsert(statement.executeUpdate());
 
             Integer id = JDBCUtils.getGeneratedId(statement, (rs) -> rs.getInt(1));
 
             userAddress.setId(id);
+            registerEntity(UserAddress.class, id, userAddress);
+            CHANGES.written(getSession(), userAddress, UserAddress.ALL_PROPERTIES);
         } catch (SQLException e) {
             throw new SimpleSQLException(e);
         }
     }
 
+    /**
+     * Updates only the properties changed since the address was loaded, nothing if there are no changes
+     */
     @Override
     public void update(UserAddress userAddress) {
-        Connection connection = getConnection();
+        updateChanges(userAddress, CHANGES, UPDATE_QUERIES, this::bindUpdate);
+    }
 
-        try (PreparedStatement statement = connection.prepareStatement(UPDATE_QUERY)) {
-            statement.setString(1, userAddress.getAddress());
-            statement.setInt(2, userAddress.getId());
+    @Override
+    public void delete(UserAddress user) {
+        try {
+            PreparedStatement statement = prepareStatement(DELETE_QUERY);
+            statement.setInt(1, user.getId());
             statement.executeUpdate();
+            evictEntity(UserAddress.class, user.getId());
         } catch (SQLException e) {
             throw new SimpleSQLException(e);
         }
     }
 
     @Override
-    public void delete(UserAddress user) {
-        Connection connection = getConnection();
-        try (PreparedStatement statement = connection.prepareStatement(DELETE_QUERY)) {
-            statement.setInt(1, user.getId());
-            statement.executeUpdate();
+    public UpsertResult upsert(UserAddress userAddress) {
+        return upsert(UserAddress.class, userAddress, UserAddress::getId, this::save, UPSERT_QUERY,
+                this::bindUpsert);
+    }
+
+    @Override
+    public List<UpsertResult> upsertAll(Collection<UserAddress> userAddresses) {
+        return upsertAll(UserAddress.class, userAddresses, UserAddress::getId, this::saveAll, UPSERT_QUERY,
+                this::bindUpsert);
+    }
+
+    @Override
+    public void saveAll(Collection<UserAddress> userAddresses) {
+        try {
+            PreparedStatement statement = prepareStatement(INSERT_QUERY, Statement.RETURN_GENERATED_KEYS);
+
+            JDBCUtils.assetBatchInsert(JDBCUtils.executeBatch(statement, userAddresses, getBatchSize(),
+                    this::bindInsert, (userAddress, rs) -> {
+                        userAddress.setId(rs.getInt(1));
+                        registerEntity(UserAddress.class, userAddress.getId(), userAddress);
+                    }));
+            userAddresses.forEach(userAddress -> CHANGES.written(getSession(), userAddress,
+                    UserAddress.ALL_PROPERTIES));
         } catch (SQLException e) {
             throw new SimpleSQLException(e);
         }
     }
 
-    /**
-     * Utility function builds and populates his properties from the result set value.
-     *
-     * @param resultSet Result set ready to get the values
-     * @return A UserAddress populated
-     */
-    private UserAddress buildUserFromResultSet(ResultSet resultSet) {
-        UserAddress userAddress = new UserAddress();
+    @Override
+    public void updateAll(Collection<UserAddress> userAddresses) {
+        updateAllChanges(userAddresses, CHANGES, UPDATE_QUERIES, this::bindUpdate);
+    }
+
+    @Override
+    public void deleteAll(Collection<UserAddress> userAddresses) {
         try {
-            userAddress.setId(resultSet.getInt("idUserAddress"));
-            userAddress.setAddress(resultSet.getString("address"));
+            PreparedStatement statement = prepareStatement(DELETE_QUERY);
+            JDBCUtils.executeBatch(statement, userAddresses, getBatchSize(),
+                    (s, userAddress) -> s.setInt(1, userAddress.getId()), null);
+            userAddresses.forEach(userAddress -> evictEntity(UserAddress.class, userAddress.getId()));
         } catch (SQLException e) {
             throw new SimpleSQLException(e);
         }
-        return userAddress;
+    }
+
+    /**
+     * Sets the owner of the addresses that still don't have him, so he is not loaded again
+     */
+    private static List<UserAddress> withUser(List<UserAddress> userAddresses, User user) {
+        for (UserAddress userAddress : userAddresses) {
+            if (!userAddress.isUserLoaded()) {
+                userAddress.setUser(user);
+            }
+        }
+        return userAddresses;
+    }
+
+    private void bindInsert(PreparedStatement statement, UserAddress userAddress) throws SQLException {
+        statement.setInt(1, userAddress.getUserId());
+        statement.setString(2, userAddress.getAddress());
+    }
+
+    private void bindUpsert(PreparedStatement statement, UserAddress userAddress) throws SQLException {
+        statement.setInt(1, userAddress.getId());
+        statement.setInt(2, userAddress.getUserId());
+        statement.setString(3, userAddress.getAddress());
+    }
+
+    private void bindUpdate(PreparedStatement statement, UserAddress userAddress, int changes)
+            throws SQLException {
+        int parameter = 1;
+        if ((changes & UserAddress.ADDRESS_PROPERTY) != 0) {
+            statement.setString(parameter++, userAddress.getAddress());
+        }
+        statement.setInt(parameter, userAddress.getId());
+    }
+
+    /**
+     * Utility function that resolves the address columns of the result set and returns the parser that
+     * builds and populates his properties from each row.
+     * <p>
+     * If the address was already loaded by the session the same instance is returned, otherwise the new
+     * address is registered in the session. The users of the new addresses are loaded on the first read,
+     * for all the addresses of the result set at once.
+     *
+     * @param resultSet Result set with the address columns
+     * @return A parser of the rows that returns a UserAddress populated
+     */
+    private SqlThrowableFunction<ResultSet, UserAddress> buildUserFromResultSet(ResultSet resultSet)
+            throws SQLException {
+        return userAddressParser(resultSet, true);
+    }
+
+    /**
+     * Same as buildUserFromResultSet but the new addresses are not registered in the session, so the
+     * streams do not retain them.
+     *
+     * @param resultSet Result set with the address columns
+     * @return A parser of the rows that returns a UserAddress populated
+     */
+    private SqlThrowableFunction<ResultSet, UserAddress> readUserFromResultSet(ResultSet resultSet)
+            throws SQLException {
+        return userAddressParser(resultSet, false);
+    }
+
+    /**
+     * Same as readUserFromResultSet but without the session, so it can parse the rows of the partitions
+     * of a parallel stream from any thread. The users of these addresses are not loaded lazily, only his id
+     * is known.
+     *
+     * @param resultSet Result set with the address columns
+     * @return A parser of the rows that returns a new UserAddress populated
+     */
+    private SqlThrowableFunction<ResultSet, UserAddress> scanUserFromResultSet(ResultSet resultSet)
+            throws SQLException {
+        return userAddressParser(resultSet, null, false);
+    }
+
+    private SqlThrowableFunction<ResultSet, UserAddress> userAddressParser(ResultSet resultSet, boolean register)
+            throws SQLException {
+        return userAddressParser(resultSet, getSession(), register);
+    }
+
+    private SqlThrowableFunction<ResultSet, UserAddress> userAddressParser(ResultSet resultSet, JDBCSession session,
+                                                                           boolean register) throws SQLException {
+        int[] columns = JDBCUtils.columnIndexes(resultSet, "idUserAddress", "idUser", "address");
+        // The rows of the parallel scans have no session, they only know the id of their user
+        BatchLoader<UserAddress, Integer> users = session == null ? null : new BatchLoader<>(session,
+                "users of the addresses", UserAddress::isUserLoaded,
+                (loadingSession, userIds) -> loadUsers(loadingSession == session
+                        ? userDao : DaoFactory.buildUserDao(loadingSession), userIds), getBatchSize());
+
+        return rs -> {
+            int id = rs.getInt(columns[0]);
+
+            UserAddress known = session == null ? null : session.getEntity(UserAddress.class, id);
+            if (known != null) {
+                return known;
+            }
+
+            UserAddress userAddress = new UserAddress();
+            userAddress.setId(id);
+            userAddress.setAddress(rs.getString(columns[2]));
+            userAddress.clearChanges(UserAddress.ALL_PROPERTIES);
+            int idUser = rs.getInt(columns[1]);
+            userAddress.setUserLoader(idUser, users == null ? null : users.add(userAddress, idUser));
+            return register ? session.registerEntity(UserAddress.class, id, userAddress) : userAddress;
+        };
+    }
+
+    /**
+     * Sets the users of the addresses reading them at once by id
+     *
+     * @param userDao Dao of the loading session
+     * @param userIds id of the user of each address
+     */
+    private static void loadUsers(UserDao userDao, Map<UserAddress, Integer> userIds) {
+        Map<Integer, User> users = userDao.getAll(new HashSet<>(userIds.values()));
+        userIds.forEach((userAddress, idUser) -> userAddress.setUser(users.get(idUser)));
     }
 }
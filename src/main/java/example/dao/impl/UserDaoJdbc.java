@@ -1,43 +1,93 @@
 package example.dao.impl;
 
+import example.dao.DaoFactory;
+import example.dao.UpsertResult;
 import example.dao.UserDao;
+import example.jdbc.JDBCSession;
 import example.jdbc.SimpleSQLException;
+import example.jdbc.SqlThrowableFunction;
 import example.model.User;
+import example.model.UserAddress;
 import example.jdbc.JDBCUtils;
 
 import java.sql.*;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Optional;
-import java.util.Set;
+import java.util.*;
+import java.util.stream.Stream;
 
 /**
  * JDBC implementation of the User Model Dao
  */
 public class UserDaoJdbc extends AbstractDaoJdbc implements UserDao {
 
-    private static final String SELECT_ONE_QUERY = "SELECT * FROM user where idUser = ?";
-    private static final String SELECT_ALL_QUERY = "SELECT * FROM user";
-    private static final String SELECT_CONTACTS_QUERY = "SELECT c.* " +
+    private static final String COLUMNS = "idUser, name, email";
+    private static final String CONTACT_COLUMNS = "c.idUser, c.name, c.email";
+    private static final String SELECT_ONE_QUERY = "SELECT " + COLUMNS + " FROM user where idUser = ?";
+    private static final String SELECT_ALL_QUERY = "SELECT " + COLUMNS + " FROM user";
+    private static final String SELECT_IDS_QUERY = "SELECT " + COLUMNS + " FROM user WHERE idUser IN (%s)";
+    private static final String SELECT_FIRST_PAGE_QUERY = "SELECT " + COLUMNS + " FROM user " +
+            "ORDER BY idUser LIMIT ?";
+    private static final String SELECT_PAGE_QUERY = "SELECT " + COLUMNS + " FROM user " +
+            "WHERE idUser > ? ORDER BY idUser LIMIT ?";
+    private static final String SELECT_BOUNDS_QUERY = "SELECT MIN(idUser), MAX(idUser) FROM user";
+    private static final String SELECT_RANGE_QUERY = "SELECT " + COLUMNS + " FROM user WHERE idUser BETWEEN ? AND ?";
+    private static final String SELECT_CONTACTS_QUERY = "SELECT " + CONTACT_COLUMNS + " " +
             "FROM user u " +
             "join usercontact uc on uc.idUser= u.idUser " +
             "join user c on uc.idContact = c.idUser " +
             "where u.idUser = ?";
+    private static final String SELECT_USERS_CONTACTS_QUERY = "SELECT uc.idUser AS idOwner, " + CONTACT_COLUMNS + " " +
+            "FROM usercontact uc " +
+            "join user c on uc.idContact = c.idUser " +
+            "where uc.idUser IN (%s)";
+    private static final String SELECT_CONTACT_IDS_QUERY = "SELECT idUser, idContact FROM usercontact " +
+            "where idUser IN (%s)";
     private static final String INSERT_QUERY = "INSERT INTO user(name, email) VALUES (?, ?)";
     private static final String INSERT_CONTACT_QUERY = "INSERT INTO usercontact(idUser, idContact) VALUES (?, ?)";
-    private static final String UPDATE_QUERY = "UPDATE user SET name = ?, email = ? WHERE idUser= ?";
+    private static final String UPSERT_QUERY = "INSERT INTO user(idUser, name, email) VALUES (?, ?, ?) " +
+            "ON DUPLICATE KEY UPDATE name = VALUES(name), email = VALUES(email)";
+    // Reports 0 rows for an existing contact whatever the useAffectedRows of the connection
+    private static final String INSERT_CONTACT_IF_ABSENT_QUERY = "INSERT IGNORE INTO usercontact(idUser, idContact) " +
+            "VALUES (?, ?)";
+    // The UPDATE of each combination of changed properties, the bits of the columns are the ones of User
+    private static final String[] UPDATE_QUERIES = updateQueries("user", "idUser", "name", "email");
+    private static final ChangeTracking<User> CHANGES = new ChangeTracking<>(User::changedProperties,
+            User::clearChanges, User::restoreChanges);
     private static final String DELETE_QUERY = "DELETE FROM user WHERE idUser = ?";
     private static final String DELETE_CONTACT_QUERY = "DELETE FROM usercontact WHERE idUser = ? and idContact = ?";
+    private static final String DELETE_FROM_CONTACTS_QUERY = "DELETE FROM usercontact WHERE idContact = ?";
+
+    private UserDao contactsDao = this;
+
+    public UserDaoJdbc() {
+    }
+
+    /**
+     * Dao that always uses the given session instead of the session bound to the current thread
+     */
+    public UserDaoJdbc(JDBCSession session) {
+        super(session);
+    }
+
+    /**
+     * Sets the Dao that loads the lazy contacts of the users of this Dao, by default this Dao. E.g. the
+     * sharded Dao, as the contacts may live in other shards
+     */
+    public void setContactsDao(UserDao contactsDao) {
+        this.contactsDao = contactsDao;
+    }
 
     @Override
     public Optional<User> get(Integer id) {
+        User known = findEntity(User.class, id);
+        if (known != null) {
+            return Optional.of(known);
+        }
 
-        Connection connection = getConnection();
-
-        try (PreparedStatement statement = connection.prepareStatement(SELECT_ONE_QUERY)) {
+        try {
+            PreparedStatement statement = prepareReadStatement(SELECT_ONE_QUERY);
 
             statement.setInt(1, id);
-            return JDBCUtils.getSingleValue(statement.executeQuery(), this::buildUserFromResultSet);
+            return JDBCUtils.getSingleRow(statement.executeQuery(), this::buildUserFromResultSet);
         } catch (SQLException e) {
             throw new SimpleSQLException(e);
         }
@@ -45,66 +95,139 @@ public class UserDaoJdbc extends AbstractDaoJdbc implements UserDao {
 
     @Override
     public List<User> getAll() {
-        Connection connection = getConnection();
+        try {
+            PreparedStatement statement = prepareReadStatement(SELECT_ALL_QUERY);
+
+            return JDBCUtils.getAllRows(statement.executeQuery(), this::buildUserFromResultSet);
+        } catch (SQLException e) {
+            throw new SimpleSQLException(e);
+        }
+    }
 
-        try (PreparedStatement statement = connection.prepareStatement(SELECT_ALL_QUERY)) {
+    @Override
+    public Map<Integer, User> getAll(Collection<Integer> ids) {
+        return getAllById(User.class, SELECT_IDS_QUERY, ids, this::buildUserFromResultSet, User::getId);
+    }
+
+    @Override
+    public List<User> getPage(Integer afterId, int limit) {
+        assertPageLimit(limit);
+
+        try {
+            PreparedStatement statement;
+            if (afterId == null) {
+                statement = prepareReadStatement(SELECT_FIRST_PAGE_QUERY);
+                statement.setInt(1, limit);
+            } else {
+                statement = prepareReadStatement(SELECT_PAGE_QUERY);
+                statement.setInt(1, afterId);
+                statement.setInt(2, limit);
+            }
 
-            return JDBCUtils.getAllValues(statement.executeQuery(), this::buildUserFromResultSet);
+            return JDBCUtils.getAllRows(statement.executeQuery(), this::buildUserFromResultSet);
         } catch (SQLException e) {
             throw new SimpleSQLException(e);
         }
     }
 
     @Override
-    public void save(User user) {
-        Connection connection = getConnection();
+    public Stream<User> stream() {
+        return stream(SELECT_ALL_QUERY, this::readUserFromResultSet);
+    }
 
-        try (PreparedStatement statement = connection
-                .prepareStatement(INSERT_QUERY, Statement.RETURN_GENERATED_KEYS)) {
+    @Override
+    public Stream<User> parallelStream(int partitions) {
+        return parallelStream(SELECT_BOUNDS_QUERY, SELECT_RANGE_QUERY, this::scanUserFromResultSet, partitions);
+    }
 
-            statement.setString(1, user.getName());
-            statement.setString(2, user.getEmail());
+    @Override
+    public void save(User user) {
+        try {
+            PreparedStatement statement = prepareStatement(INSERT_QUERY, Statement.RETURN_GENERATED_KEYS);
+
+            bindInsert(statement, user);
 
             JDBCUtils.assetInsert(statement.executeUpdate());
             user.setId(JDBCUtils.getGeneratedId(statement, rs -> rs.getInt(1)));
+            registerEntity(User.class, user.getId(), user);
+            CHANGES.written(getSession(), user, User.ALL_PROPERTIES);
 
         } catch (SQLException e) {
             throw new SimpleSQLException(e);
         }
     }
 
+    /**
+     * Updates only the properties changed since the user was loaded, nothing if there are no changes
+     */
     @Override
     public void update(User user) {
-        Connection connection = getConnection();
+        updateChanges(user, CHANGES, UPDATE_QUERIES, this::bindUpdate);
+    }
 
-        try (PreparedStatement statement = connection.prepareStatement(UPDATE_QUERY)) {
-            statement.setString(1, user.getName());
-            statement.setString(2, user.getEmail());
-            statement.setInt(3, user.getId());
+    @Override
+    public void delete(User user) {
+        try {
+            PreparedStatement statement = prepareStatement(DELETE_QUERY);
+            statement.setInt(1, user.getId());
             statement.executeUpdate();
+            evictEntity(User.class, user.getId());
+            // The addresses of the user are deleted in cascade
+            evictEntities(UserAddress.class);
         } catch (SQLException e) {
             throw new SimpleSQLException(e);
         }
     }
 
     @Override
-    public void delete(User user) {
-        Connection connection = getConnection();
-        try (PreparedStatement statement = connection.prepareStatement(DELETE_QUERY)) {
-            statement.setInt(1, user.getId());
-            statement.executeUpdate();
+    public UpsertResult upsert(User user) {
+        return upsert(User.class, user, User::getId, this::save, UPSERT_QUERY, this::bindUpsert);
+    }
+
+    @Override
+    public List<UpsertResult> upsertAll(Collection<User> users) {
+        return upsertAll(User.class, users, User::getId, this::saveAll, UPSERT_QUERY, this::bindUpsert);
+    }
+
+    @Override
+    public void saveAll(Collection<User> users) {
+        try {
+            PreparedStatement statement = prepareStatement(INSERT_QUERY, Statement.RETURN_GENERATED_KEYS);
+
+            JDBCUtils.assetBatchInsert(JDBCUtils.executeBatch(statement, users, getBatchSize(),
+                    this::bindInsert, (user, rs) -> {
+                        user.setId(rs.getInt(1));
+                        registerEntity(User.class, user.getId(), user);
+                    }));
+            users.forEach(user -> CHANGES.written(getSession(), user, User.ALL_PROPERTIES));
         } catch (SQLException e) {
             throw new SimpleSQLException(e);
         }
     }
 
     @Override
-    public Set<User> getContacts(User user) {
-        Connection connection = getConnection();
+    public void updateAll(Collection<User> users) {
+        updateAllChanges(users, CHANGES, UPDATE_QUERIES, this::bindUpdate);
+    }
 
-        try (PreparedStatement statement = connection.prepareStatement(SELECT_CONTACTS_QUERY)) {
+    @Override
+    public void deleteAll(Collection<User> users) {
+        try {
+            PreparedStatement statement = prepareStatement(DELETE_QUERY);
+            JDBCUtils.executeBatch(statement, users, getBatchSize(), (s, user) -> s.setInt(1, user.getId()), null);
+            users.forEach(user -> evictEntity(User.class, user.getId()));
+            evictEntities(UserAddress.class);
+        } catch (SQLException e) {
+            throw new SimpleSQLException(e);
+        }
+    }
+
+    @Override
+    public Set<User> getContacts(User user) {
+        try {
+            PreparedStatement statement = prepareReadStatement(SELECT_CONTACTS_QUERY);
             statement.setInt(1, user.getId());
-            return new HashSet<>(JDBCUtils.getAllValues(statement.executeQuery(), this::buildUserFromResultSet));
+            return new HashSet<>(JDBCUtils.getAllRows(statement.executeQuery(), this::buildUserFromResultSet));
         } catch (SQLException e) {
             throw new SimpleSQLException(e);
         }
@@ -115,12 +238,44 @@ public class UserDaoJdbc extends AbstractDaoJdbc implements UserDao {
         user.setContacts(getContacts(user));
     }
 
+    @Override
+    public void populateContacts(Collection<User> users) {
+        Map<Integer, List<User>> owners = new HashMap<>();
+        Map<Integer, User> contacts = new HashMap<>();
+
+        for (User user : users) {
+            user.setContacts(new HashSet<>());
+            owners.computeIfAbsent(user.getId(), id -> new ArrayList<>(1)).add(user);
+            contacts.put(user.getId(), user);
+        }
+
+        getAllInChunks(SELECT_USERS_CONTACTS_QUERY, owners.keySet(), resultSet -> {
+            int[] columns = JDBCUtils.columnIndexes(resultSet, "idOwner", "idUser");
+            SqlThrowableFunction<ResultSet, User> userParser = buildUserFromResultSet(resultSet);
+
+            return rs -> {
+                User contact = contacts.get(rs.getInt(columns[1]));
+                if (contact == null) {
+                    contact = userParser.apply(rs);
+                    contacts.put(contact.getId(), contact);
+                }
+
+                for (User owner : owners.get(rs.getInt(columns[0]))) {
+                    owner.getContacts().add(contact);
+                }
+                return contact;
+            };
+        });
+    }
+
     @Override
     public void addContact(User user, User contact) {
-        Connection connection = getConnection();
-        user.getContacts().add(contact);
+        if (user.isContactsLoaded()) {
+            user.getContacts().add(contact);
+        }
 
-        try (PreparedStatement statement = connection.prepareStatement(INSERT_CONTACT_QUERY)) {
+        try {
+            PreparedStatement statement = prepareStatement(INSERT_CONTACT_QUERY);
 
             statement.setInt(1, user.getId());
             statement.setInt(2, contact.getId());
@@ -131,12 +286,50 @@ public class UserDaoJdbc extends AbstractDaoJdbc implements UserDao {
         }
     }
 
+    @Override
+    public void addContacts(User user, Collection<User> contacts) {
+        if (user.isContactsLoaded()) {
+            user.getContacts().addAll(contacts);
+        }
+
+        try {
+            PreparedStatement statement = prepareStatement(INSERT_CONTACT_QUERY);
+
+            JDBCUtils.assetBatchInsert(JDBCUtils.executeBatch(statement, contacts, getBatchSize(), (s, contact) -> {
+                s.setInt(1, user.getId());
+                s.setInt(2, contact.getId());
+            }, null));
+        } catch (SQLException e) {
+            throw new SimpleSQLException(e);
+        }
+    }
+
+    @Override
+    public boolean addContactIfAbsent(User user, User contact) {
+        if (user.isContactsLoaded()) {
+            user.getContacts().add(contact);
+        }
+
+        try {
+            PreparedStatement statement = prepareStatement(INSERT_CONTACT_IF_ABSENT_QUERY);
+
+            statement.setInt(1, user.getId());
+            statement.setInt(2, contact.getId());
+
+            return statement.executeUpdate() == 1;
+        } catch (SQLException e) {
+            throw new SimpleSQLException(e);
+        }
+    }
+
     @Override
     public void deleteContact(User user, User contact) {
-        Connection connection = getConnection();
-        user.getContacts().remove(contact);
+        if (user.isContactsLoaded()) {
+            user.getContacts().remove(contact);
+        }
 
-        try (PreparedStatement statement = connection.prepareStatement(DELETE_CONTACT_QUERY)) {
+        try {
+            PreparedStatement statement = prepareStatement(DELETE_CONTACT_QUERY);
 
             statement.setInt(1, user.getId());
             statement.setInt(2, contact.getId());
@@ -148,20 +341,138 @@ public class UserDaoJdbc extends AbstractDaoJdbc implements UserDao {
     }
 
     /**
-     * Utility function builds and user and populates his properties from the result set value.
+     * Gets the ids of the contacts of several users without loading the contacts, e.g. when the contacts
+     * live in other shards
      *
-     * @param resultSet Result set ready to get the values
-     * @return A User populated
+     * @param userIds ids of the owners of the contacts
+     * @return The ids of the contacts of each user that has contacts
      */
-    private User buildUserFromResultSet(ResultSet resultSet) {
-        User user = new User();
+    public Map<Integer, Set<Integer>> getContactIds(Collection<Integer> userIds) {
+        Map<Integer, Set<Integer>> contactIds = new HashMap<>();
+
+        getAllInChunks(SELECT_CONTACT_IDS_QUERY, userIds, resultSet -> {
+            int[] columns = JDBCUtils.columnIndexes(resultSet, "idUser", "idContact");
+
+            return rs -> contactIds.computeIfAbsent(rs.getInt(columns[0]), id -> new HashSet<>())
+                    .add(rs.getInt(columns[1]));
+        });
+
+        return contactIds;
+    }
+
+    /**
+     * Removes the users from the contacts of everyone in batches, e.g. when they were deleted from
+     * another shard and there is no foreign key to do it in cascade
+     *
+     * @param users users to remove from the contacts
+     */
+    public void removeFromContacts(Collection<User> users) {
         try {
-            user.setId(resultSet.getInt("idUser"));
-            user.setName(resultSet.getString("name"));
-            user.setEmail(resultSet.getString("email"));
+            PreparedStatement statement = prepareStatement(DELETE_FROM_CONTACTS_QUERY);
+            JDBCUtils.executeBatch(statement, users, getBatchSize(), (s, user) -> s.setInt(1, user.getId()), null);
         } catch (SQLException e) {
             throw new SimpleSQLException(e);
         }
-        return user;
+    }
+
+    private void bindInsert(PreparedStatement statement, User user) throws SQLException {
+        statement.setString(1, user.getName());
+        statement.setString(2, user.getEmail());
+    }
+
+    private void bindUpsert(PreparedStatement statement, User user) throws SQLException {
+        statement.setInt(1, user.getId());
+        statement.setString(2, user.getName());
+        statement.setString(3, user.getEmail());
+    }
+
+    private void bindUpdate(PreparedStatement statement, User user, int changes) throws SQLException {
+        int parameter = 1;
+        if ((changes & User.NAME_PROPERTY) != 0) {
+            statement.setString(parameter++, user.getName());
+        }
+        if ((changes & User.EMAIL_PROPERTY) != 0) {
+            statement.setString(parameter++, user.getEmail());
+        }
+        statement.setInt(parameter, user.getId());
+    }
+
+    /**
+     * Utility function that resolves the user columns of the result set and returns the parser that
+     * builds and user and populates his properties from each row.
+     * <p>
+     * If the user was already loaded by the session the same instance is returned, otherwise the new
+     * user is registered in the session. The contacts of the new users are loaded on the first read, for
+     * all the users of the result set at once.
+     *
+     * @param resultSet Result set with the user columns
+     * @return A parser of the rows that returns a User populated
+     */
+    private SqlThrowableFunction<ResultSet, User> buildUserFromResultSet(ResultSet resultSet) throws SQLException {
+        return userParser(resultSet, true);
+    }
+
+    /**
+     * Same as buildUserFromResultSet but the new users are not registered in the session, so the
+     * streams do not retain them.
+     *
+     * @param resultSet Result set with the user columns
+     * @return A parser of the rows that returns a User populated
+     */
+    private SqlThrowableFunction<ResultSet, User> readUserFromResultSet(ResultSet resultSet) throws SQLException {
+        return userParser(resultSet, false);
+    }
+
+    /**
+     * Same as readUserFromResultSet but without the session, so it can parse the rows of the partitions
+     * of a parallel stream from any thread. The contacts of these users are not loaded lazily.
+     *
+     * @param resultSet Result set with the user columns
+     * @return A parser of the rows that returns a new User populated
+     */
+    private SqlThrowableFunction<ResultSet, User> scanUserFromResultSet(ResultSet resultSet) throws SQLException {
+        return userParser(resultSet, null, false);
+    }
+
+    private SqlThrowableFunction<ResultSet, User> userParser(ResultSet resultSet, boolean register)
+            throws SQLException {
+        return userParser(resultSet, getSession(), register);
+    }
+
+    private SqlThrowableFunction<ResultSet, User> userParser(ResultSet resultSet, JDBCSession session,
+                                                             boolean register) throws SQLException {
+        int[] columns = JDBCUtils.columnIndexes(resultSet, "idUser", "name", "email");
+        // The rows of the parallel scans have no session, they don't load their contacts
+        BatchLoader<User, Integer> contacts = session == null ? null : new BatchLoader<>(session,
+                "contacts of the users", User::isContactsLoaded,
+                (loadingSession, users) -> contactsDao(session, loadingSession).populateContacts(users.keySet()),
+                getBatchSize());
+
+        return rs -> {
+            int id = rs.getInt(columns[0]);
+
+            User known = session == null ? null : session.getEntity(User.class, id);
+            if (known != null) {
+                return known;
+            }
+
+            User user = new User();
+            user.setId(id);
+            user.setName(rs.getString(columns[1]));
+            user.setEmail(rs.getString(columns[2]));
+            user.clearChanges(User.ALL_PROPERTIES);
+            if (contacts != null) {
+                user.setContactsLoader(contacts.add(user, id));
+            }
+            return register ? session.registerEntity(User.class, id, user) : user;
+        };
+    }
+
+    /**
+     * Dao that loads lazily the contacts of the users read by the session, a Dao of the loading session
+     * once the session is closed
+     */
+    private UserDao contactsDao(JDBCSession session, JDBCSession loadingSession) {
+        return loadingSession == session ? contactsDao : DaoFactory.buildUserDao(loadingSession);
     }
 }
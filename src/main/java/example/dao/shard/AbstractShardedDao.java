@@ -0,0 +1,334 @@
+package example.dao.shard;
+
+import example.dao.UpsertResult;
+import example.jdbc.JDBCSession;
+import example.jdbc.JDBCUtils;
+import example.jdbc.ShardRouter;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Base Dao for the sharded DAO's, it routes each operation to the session of his shard and runs the
+ * operations over several shards as a scatter-gather on a fork-join pool.
+ * <p>
+ * Each shard is used by a single task of a scatter and the caller waits for all of them, so a shard
+ * session is never used by two threads at the same time. Inside a transaction of the session the writes
+ * to the shards are committed or rolled back with it, see JDBCSession.getShardSession.
+ */
+abstract class AbstractShardedDao {
+
+    private static final String PARALLELISM = "jdbc.shards.parallelism";
+
+    private final Supplier<JDBCSession> sessionSupplier;
+    private final ShardRouter router;
+
+    /**
+     * Dao that uses the shard sessions of the given session
+     *
+     * @param session session of the Dao, null to use the session bound to the calling thread
+     */
+    AbstractShardedDao(JDBCSession session) {
+        this.sessionSupplier = session == null ? JDBCSession::current : () -> session;
+        this.router = JDBCUtils.getShardRouter();
+
+        if (!router.isSharded()) {
+            throw new IllegalStateException("There are no shards configured in jdbc.shards");
+        }
+    }
+
+    /**
+     * Gets the session of a shard, it belongs to the session of the Dao
+     */
+    JDBCSession getShardSession(int shard) {
+        return sessionSupplier.get().getShardSession(shard);
+    }
+
+    int shardFor(Integer id) {
+        return router.shardFor(id);
+    }
+
+    int shardForNew() {
+        return router.shardForNew();
+    }
+
+    /**
+     * Asserts that a new id was generated by the shard that owns it, otherwise the auto increment of the
+     * shard doesn't match the router and the element would not be found again
+     */
+    void assertShard(int shard, Integer id) {
+        if (shardFor(id) != shard) {
+            throw new IllegalStateException(String.format("The shard %d generated the id %d that belongs to the " +
+                    "shard %d, check his auto increment", shard, id, shardFor(id)));
+        }
+    }
+
+    /**
+     * Groups the values by the shard of his id, the shards are sorted
+     */
+    <T> Map<Integer, List<T>> groupByShard(Collection<T> values, Function<T, Integer> idGetter) {
+        return values.stream().collect(Collectors.groupingBy(value -> shardFor(idGetter.apply(value)),
+                TreeMap::new, Collectors.toList()));
+    }
+
+    /**
+     * Runs a task on each shard in parallel and waits for all of them.
+     * <p>
+     * The shard sessions are opened by the calling thread before the scatter, and a single shard runs
+     * on the calling thread. When a task fails the others are still waited, so no task uses a session
+     * after the call, and the first failure is thrown
+     *
+     * @param shards shards where the task must run
+     * @param task   task to run with the index and the session of each shard
+     * @return The result of each shard in the order of the shards
+     */
+    <R> List<R> scatter(Collection<Integer> shards, BiFunction<Integer, JDBCSession, R> task) {
+        Map<Integer, JDBCSession> sessions = new LinkedHashMap<>();
+        shards.forEach(shard -> sessions.put(shard, getShardSession(shard)));
+
+        if (sessions.size() == 1) {
+            Map.Entry<Integer, JDBCSession> only = sessions.entrySet().iterator().next();
+            return Collections.singletonList(task.apply(only.getKey(), only.getValue()));
+        }
+
+        List<ForkJoinTask<R>> tasks = new ArrayList<>(sessions.size());
+        sessions.forEach((shard, session) -> tasks.add(ScatterPool.POOL.submit(() -> task.apply(shard, session))));
+
+        List<R> results = new ArrayList<>(tasks.size());
+        RuntimeException failure = null;
+        for (ForkJoinTask<R> shardTask : tasks) {
+            try {
+                results.add(shardTask.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if (failure == null) {
+                    failure = new IllegalStateException("Interrupted waiting for the shards", e);
+                }
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = unwrap(e.getCause());
+                }
+            }
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+        return results;
+    }
+
+    /**
+     * Runs a task on every shard in parallel, see scatter
+     */
+    <R> List<R> scatterAll(Function<JDBCSession, R> task) {
+        return scatter(allShards(), (shard, session) -> task.apply(session));
+    }
+
+    /**
+     * Runs a query on every shard in parallel and concatenates the results
+     */
+    <T> List<T> getAllFromShards(Function<JDBCSession, List<T>> query) {
+        return scatterAll(query).stream().flatMap(List::stream).collect(Collectors.toList());
+    }
+
+    /**
+     * Fetches the elements with the given ids from the shards that own them in parallel
+     *
+     * @param ids   ids of the elements
+     * @param query fetches the elements of some ids from a shard
+     * @return The elements found keyed by his id in the same order than the ids
+     */
+    <T> Map<Integer, T> getAllByIdFromShards(Collection<Integer> ids,
+                                             BiFunction<JDBCSession, List<Integer>, Map<Integer, T>> query) {
+        List<Integer> distinctIds = ids.stream().filter(Objects::nonNull).distinct().collect(Collectors.toList());
+        Map<Integer, List<Integer>> idsByShard = groupByShard(distinctIds, Function.identity());
+
+        Map<Integer, T> found = new HashMap<>();
+        scatter(idsByShard.keySet(), (shard, session) -> query.apply(session, idsByShard.get(shard)))
+                .forEach(found::putAll);
+
+        Map<Integer, T> results = new LinkedHashMap<>();
+        for (Integer id : ids) {
+            T value = found.get(id);
+            if (value != null) {
+                results.put(id, value);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Gets the same page of every shard in parallel and merges them by id up to the limit, so the page
+     * is the same that a single database would return
+     *
+     * @param limit    max amount of elements of the page
+     * @param query    gets the page of a shard
+     * @param idGetter gets the id of an element
+     */
+    <T> List<T> getPageFromShards(int limit, Function<JDBCSession, List<T>> query, Function<T, Integer> idGetter) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("The limit of a page must be at least 1");
+        }
+
+        return getAllFromShards(query).stream()
+                .sorted(Comparator.comparing(idGetter))
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Streams the elements of every shard, one shard after another. The stream of a shard is opened when
+     * the previous one ends and closed once it is read or with the returned stream
+     *
+     * @param query opens the stream of a shard
+     */
+    <T> Stream<T> streamFromShards(Function<JDBCSession, Stream<T>> query) {
+        ShardsSpliterator<T> spliterator = new ShardsSpliterator<>(shard -> query.apply(getShardSession(shard)));
+        return StreamSupport.stream(spliterator, false).onClose(spliterator::close);
+    }
+
+    /**
+     * Concatenates the parallel streams of every shard, the partitions of all the shards are read in
+     * parallel
+     *
+     * @param query opens the parallel stream of a shard
+     */
+    <T> Stream<T> parallelStreamFromShards(Function<JDBCSession, Stream<T>> query) {
+        return allShards().stream()
+                .map(shard -> query.apply(getShardSession(shard)))
+                .reduce(Stream::concat)
+                .orElseGet(Stream::empty);
+    }
+
+    /**
+     * Upserts the values, the values without id are saved as new ones and the rest are upserted in the
+     * shard of his id in parallel
+     *
+     * @param values    values to upsert
+     * @param idGetter  gets the id of a value
+     * @param saveAll   saves the values without id
+     * @param upsertAll upserts the values of a shard
+     * @return The outcome of each value in the order of the values
+     */
+    <T> List<UpsertResult> upsertAllInShards(Collection<T> values, Function<T, Integer> idGetter,
+                                             Consumer<Collection<T>> saveAll,
+                                             BiFunction<JDBCSession, List<T>, List<UpsertResult>> upsertAll) {
+        List<T> newValues = new ArrayList<>();
+        List<T> existingValues = new ArrayList<>();
+        for (T value : values) {
+            (idGetter.apply(value) == null ? newValues : existingValues).add(value);
+        }
+
+        Map<T, UpsertResult> results = new IdentityHashMap<>();
+        if (!newValues.isEmpty()) {
+            saveAll.accept(newValues);
+            newValues.forEach(value -> results.put(value, UpsertResult.INSERTED));
+        }
+
+        Map<Integer, List<T>> valuesByShard = groupByShard(existingValues, idGetter);
+        List<List<UpsertResult>> shardResults = scatter(valuesByShard.keySet(),
+                (shard, session) -> upsertAll.apply(session, valuesByShard.get(shard)));
+
+        Iterator<List<UpsertResult>> shardResult = shardResults.iterator();
+        for (List<T> shardValues : valuesByShard.values()) {
+            Iterator<UpsertResult> result = shardResult.next().iterator();
+            shardValues.forEach(value -> results.put(value, result.next()));
+        }
+
+        List<UpsertResult> ordered = new ArrayList<>(values.size());
+        values.forEach(value -> ordered.add(results.get(value)));
+        return ordered;
+    }
+
+    /**
+     * Runs a write of the values of each shard in parallel, see scatter
+     *
+     * @param valuesByShard values to write keyed by his shard
+     * @param write         writes the values of a shard
+     */
+    <T> void writeToShards(Map<Integer, List<T>> valuesByShard, BiConsumer<JDBCSession, List<T>> write) {
+        scatter(valuesByShard.keySet(), (shard, session) -> {
+            write.accept(session, valuesByShard.get(shard));
+            return null;
+        });
+    }
+
+    private List<Integer> allShards() {
+        return IntStream.range(0, router.getShardCount()).boxed().collect(Collectors.toList());
+    }
+
+    private static RuntimeException unwrap(Throwable cause) {
+        if (cause instanceof RuntimeException) {
+            return (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new IllegalStateException(cause);
+    }
+
+    /**
+     * Concatenates lazily the streams of the shards
+     */
+    private class ShardsSpliterator<T> extends Spliterators.AbstractSpliterator<T> {
+
+        private final Function<Integer, Stream<T>> opener;
+        private int nextShard;
+        private Stream<T> current;
+        private Spliterator<T> currentSpliterator;
+
+        ShardsSpliterator(Function<Integer, Stream<T>> opener) {
+            super(Long.MAX_VALUE, Spliterator.NONNULL);
+            this.opener = opener;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            while (true) {
+                if (currentSpliterator == null) {
+                    if (nextShard == router.getShardCount()) {
+                        return false;
+                    }
+                    current = opener.apply(nextShard++);
+                    currentSpliterator = current.spliterator();
+                }
+
+                if (currentSpliterator.tryAdvance(action)) {
+                    return true;
+                }
+                close();
+            }
+        }
+
+        void close() {
+            if (current != null) {
+                Stream<T> stream = current;
+                current = null;
+                currentSpliterator = null;
+                stream.close();
+            }
+        }
+    }
+
+    private static class ScatterPool {
+        private static final ForkJoinPool POOL = new ForkJoinPool(
+                JDBCUtils.getIntProperty(PARALLELISM, JDBCUtils.getShardRouter().getShardCount() * 4),
+                pool -> {
+                    ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                    thread.setName("jdbc-shard-scatter-" + thread.getPoolIndex());
+                    return thread;
+                }, null, false);
+    }
+}
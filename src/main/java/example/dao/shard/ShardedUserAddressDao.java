@@ -0,0 +1,155 @@
+package example.dao.shard;
+
+import example.dao.UpsertResult;
+import example.dao.UserAddressDao;
+import example.dao.impl.UserAddressDaoJdbc;
+import example.jdbc.JDBCSession;
+import example.model.User;
+import example.model.UserAddress;
+
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * User Address Dao that stores the addresses in the shard of his user, see ShardRouter.
+ * <p>
+ * The ids of the addresses are generated as the ids of the users, so an address is found by his id
+ * in the same shard than his user. The operations over several shards run in parallel.
+ * <p>
+ * The writes inside a transaction of the session are committed with it in every shard they touched,
+ * as in ShardedUserDao. A commit that fails in one shard can leave the addresses of the other shards
+ * committed, there is no two phase commit.
+ */
+public class ShardedUserAddressDao extends AbstractShardedDao implements UserAddressDao {
+
+    private final ShardedUserDao userDao;
+
+    public ShardedUserAddressDao() {
+        this(null);
+    }
+
+    /**
+     * Dao that always uses the shard sessions of the given session
+     */
+    public ShardedUserAddressDao(JDBCSession session) {
+        super(session);
+        this.userDao = new ShardedUserDao(session);
+    }
+
+    @Override
+    public Optional<UserAddress> get(Integer id) {
+        return dao(shardFor(id)).get(id);
+    }
+
+    @Override
+    public List<UserAddress> getAll() {
+        return getAllFromShards(session -> dao(session).getAll());
+    }
+
+    @Override
+    public Map<Integer, UserAddress> getAll(Collection<Integer> ids) {
+        return getAllByIdFromShards(ids, (session, shardIds) -> dao(session).getAll(shardIds));
+    }
+
+    @Override
+    public List<UserAddress> getPage(Integer afterId, int limit) {
+        return getPageFromShards(limit, session -> dao(session).getPage(afterId, limit), UserAddress::getId);
+    }
+
+    @Override
+    public Stream<UserAddress> stream() {
+        return streamFromShards(session -> dao(session).stream());
+    }
+
+    @Override
+    public List<UserAddress> getForUser(User user) {
+        return dao(shardFor(user.getId())).getForUser(user);
+    }
+
+    @Override
+    public Map<User, List<UserAddress>> getForUsers(Collection<User> users) {
+        Map<Integer, List<User>> usersByShard = groupByShard(users, User::getId);
+
+        Map<User, List<UserAddress>> found = new HashMap<>();
+        scatter(usersByShard.keySet(), (shard, session) -> dao(session).getForUsers(usersByShard.get(shard)))
+                .forEach(found::putAll);
+
+        Map<User, List<UserAddress>> addresses = new LinkedHashMap<>();
+        users.forEach(user -> addresses.put(user, found.get(user)));
+        return addresses;
+    }
+
+    @Override
+    public List<UserAddress> getForUser(User user, Integer afterId, int limit) {
+        return dao(shardFor(user.getId())).getForUser(user, afterId, limit);
+    }
+
+    @Override
+    public Stream<UserAddress> parallelStream(int partitions) {
+        return parallelStreamFromShards(session -> dao(session).parallelStream(partitions));
+    }
+
+    @Override
+    public void save(UserAddress userAddress) {
+        int shard = shardFor(userAddress.getUserId());
+        dao(shard).save(userAddress);
+        assertShard(shard, userAddress.getId());
+    }
+
+    @Override
+    public void update(UserAddress userAddress) {
+        dao(shardFor(userAddress.getId())).update(userAddress);
+    }
+
+    @Override
+    public void delete(UserAddress userAddress) {
+        dao(shardFor(userAddress.getId())).delete(userAddress);
+    }
+
+    @Override
+    public UpsertResult upsert(UserAddress userAddress) {
+        if (userAddress.getId() == null) {
+            save(userAddress);
+            return UpsertResult.INSERTED;
+        }
+        return dao(shardFor(userAddress.getId())).upsert(userAddress);
+    }
+
+    @Override
+    public List<UpsertResult> upsertAll(Collection<UserAddress> userAddresses) {
+        return upsertAllInShards(userAddresses, UserAddress::getId, this::saveAll,
+                (session, addresses) -> dao(session).upsertAll(addresses));
+    }
+
+    @Override
+    public void saveAll(Collection<UserAddress> userAddresses) {
+        Map<Integer, List<UserAddress>> addressesByShard = groupByShard(userAddresses, UserAddress::getUserId);
+
+        writeToShards(addressesByShard, (session, addresses) -> dao(session).saveAll(addresses));
+        addressesByShard.forEach((shard, addresses) ->
+                addresses.forEach(userAddress -> assertShard(shard, userAddress.getId())));
+    }
+
+    @Override
+    public void updateAll(Collection<UserAddress> userAddresses) {
+        writeToShards(groupByShard(userAddresses, UserAddress::getId),
+                (session, addresses) -> dao(session).updateAll(addresses));
+    }
+
+    @Override
+    public void deleteAll(Collection<UserAddress> userAddresses) {
+        writeToShards(groupByShard(userAddresses, UserAddress::getId),
+                (session, addresses) -> dao(session).deleteAll(addresses));
+    }
+
+    private UserAddressDaoJdbc dao(int shard) {
+        return dao(getShardSession(shard));
+    }
+
+    private UserAddressDaoJdbc dao(JDBCSession shardSession) {
+        UserAddressDaoJdbc dao = new UserAddressDaoJdbc(shardSession);
+        // The users are loaded with the sharded Dao, so their lazy contacts come from every shard
+        dao.setUserDao(userDao);
+        return dao;
+    }
+}
@@ -0,0 +1,204 @@
+package example.dao.shard;
+
+import example.dao.UpsertResult;
+import example.dao.UserDao;
+import example.dao.impl.UserDaoJdbc;
+import example.jdbc.JDBCSession;
+import example.model.User;
+
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * User Dao that distributes the users between the shards by idUser, see ShardRouter.
+ * <p>
+ * The contacts of a user are stored in his shard, but the contacts themselves may live in any shard, so
+ * they are fetched by id from their shards. The operations over several shards run in parallel. Out of a
+ * transaction each shard commits on his own. Inside a transaction of the session the shard sessions join
+ * it and they are committed or rolled back after the session, one after another. It is a best effort commit
+ * without two phase commit (XA): if a shard fails to commit after others have committed, those shards
+ * keep the changes and the failure is thrown once all of them have been tried.
+ */
+public class ShardedUserDao extends AbstractShardedDao implements UserDao {
+
+    public ShardedUserDao() {
+        this(null);
+    }
+
+    /**
+     * Dao that always uses the shard sessions of the given session
+     */
+    public ShardedUserDao(JDBCSession session) {
+        super(session);
+    }
+
+    @Override
+    public Optional<User> get(Integer id) {
+        return dao(shardFor(id)).get(id);
+    }
+
+    @Override
+    public List<User> getAll() {
+        return getAllFromShards(session -> dao(session).getAll());
+    }
+
+    @Override
+    public Map<Integer, User> getAll(Collection<Integer> ids) {
+        return getAllByIdFromShards(ids, (session, shardIds) -> dao(session).getAll(shardIds));
+    }
+
+    @Override
+    public List<User> getPage(Integer afterId, int limit) {
+        return getPageFromShards(limit, session -> dao(session).getPage(afterId, limit), User::getId);
+    }
+
+    @Override
+    public Stream<User> stream() {
+        return streamFromShards(session -> dao(session).stream());
+    }
+
+    @Override
+    public Stream<User> parallelStream(int partitions) {
+        return parallelStreamFromShards(session -> dao(session).parallelStream(partitions));
+    }
+
+    @Override
+    public void save(User user) {
+        int shard = shardForNew();
+        dao(shard).save(user);
+        assertShard(shard, user.getId());
+    }
+
+    @Override
+    public void update(User user) {
+        dao(shardFor(user.getId())).update(user);
+    }
+
+    @Override
+    public void delete(User user) {
+        dao(shardFor(user.getId())).delete(user);
+        removeFromContacts(Collections.singletonList(user));
+    }
+
+    @Override
+    public UpsertResult upsert(User user) {
+        if (user.getId() == null) {
+            save(user);
+            return UpsertResult.INSERTED;
+        }
+        return dao(shardFor(user.getId())).upsert(user);
+    }
+
+    @Override
+    public List<UpsertResult> upsertAll(Collection<User> users) {
+        return upsertAllInShards(users, User::getId, this::saveAll,
+                (session, shardUsers) -> dao(session).upsertAll(shardUsers));
+    }
+
+    @Override
+    public void saveAll(Collection<User> users) {
+        Map<Integer, List<User>> usersByShard = new TreeMap<>();
+        for (User user : users) {
+            usersByShard.computeIfAbsent(shardForNew(), shard -> new ArrayList<>()).add(user);
+        }
+
+        writeToShards(usersByShard, (session, shardUsers) -> dao(session).saveAll(shardUsers));
+        usersByShard.forEach((shard, shardUsers) -> shardUsers.forEach(user -> assertShard(shard, user.getId())));
+    }
+
+    @Override
+    public void updateAll(Collection<User> users) {
+        writeToShards(groupByShard(users, User::getId), (session, shardUsers) -> dao(session).updateAll(shardUsers));
+    }
+
+    @Override
+    public void deleteAll(Collection<User> users) {
+        writeToShards(groupByShard(users, User::getId), (session, shardUsers) -> dao(session).deleteAll(shardUsers));
+        removeFromContacts(users);
+    }
+
+    @Override
+    public Set<User> getContacts(User user) {
+        Set<Integer> contactIds = dao(shardFor(user.getId()))
+                .getContactIds(Collections.singletonList(user.getId()))
+                .getOrDefault(user.getId(), Collections.emptySet());
+
+        return new HashSet<>(getAll(contactIds).values());
+    }
+
+    @Override
+    public void populateContacts(User user) {
+        user.setContacts(getContacts(user));
+    }
+
+    @Override
+    public void populateContacts(Collection<User> users) {
+        Map<Integer, User> known = new HashMap<>();
+        users.forEach(user -> known.putIfAbsent(user.getId(), user));
+
+        Map<Integer, Set<Integer>> contactIds = new HashMap<>();
+        Map<Integer, List<Integer>> ownersByShard = groupByShard(known.keySet(), id -> id);
+        scatter(ownersByShard.keySet(), (shard, session) -> dao(session).getContactIds(ownersByShard.get(shard)))
+                .forEach(contactIds::putAll);
+
+        // A contact shared by several users, or that is one of the users, is the same instance
+        Set<Integer> missing = new LinkedHashSet<>();
+        contactIds.values().forEach(missing::addAll);
+        missing.removeAll(known.keySet());
+        Map<Integer, User> contacts = new HashMap<>(known);
+        contacts.putAll(getAll(missing));
+
+        for (User user : users) {
+            Set<User> userContacts = new HashSet<>();
+            for (Integer contactId : contactIds.getOrDefault(user.getId(), Collections.emptySet())) {
+                User contact = contacts.get(contactId);
+                if (contact != null) {
+                    userContacts.add(contact);
+                }
+            }
+            user.setContacts(userContacts);
+        }
+    }
+
+    @Override
+    public void addContact(User user, User contact) {
+        dao(shardFor(user.getId())).addContact(user, contact);
+    }
+
+    @Override
+    public void addContacts(User user, Collection<User> contacts) {
+        dao(shardFor(user.getId())).addContacts(user, contacts);
+    }
+
+    @Override
+    public boolean addContactIfAbsent(User user, User contact) {
+        return dao(shardFor(user.getId())).addContactIfAbsent(user, contact);
+    }
+
+    @Override
+    public void deleteContact(User user, User contact) {
+        dao(shardFor(user.getId())).deleteContact(user, contact);
+    }
+
+    /**
+     * Removes the deleted users from the contacts in every shard, the contacts of other shards can not
+     * be deleted in cascade
+     */
+    private void removeFromContacts(Collection<User> users) {
+        scatterAll(session -> {
+            dao(session).removeFromContacts(users);
+            return null;
+        });
+    }
+
+    private UserDaoJdbc dao(int shard) {
+        return dao(getShardSession(shard));
+    }
+
+    private UserDaoJdbc dao(JDBCSession shardSession) {
+        UserDaoJdbc dao = new UserDaoJdbc(shardSession);
+        // The contacts may live in other shards
+        dao.setContactsDao(this);
+        return dao;
+    }
+}
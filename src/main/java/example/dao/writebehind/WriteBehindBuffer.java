@@ -0,0 +1,376 @@
+package example.dao.writebehind;
+
+import example.jdbc.JDBCSession;
+import example.jdbc.JDBCUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/**
+ * Buffer of pending updates that keeps only the last version of each element and writes them in batches
+ * from a background thread, when there are enough of them for a batch or every flush interval.
+ * <p>
+ * The flushes run one at a time, each batch in a transaction of his own session, so the versions of an
+ * element are written in the same order they were added. A failed batch goes back to the front of the
+ * buffer, unless there is a newer version of the element, and the background flushes back off
+ * exponentially up to jdbc.writeBehind.maxBackoffMs until a flush succeeds.
+ * <p>
+ * Each failure halves the batches of the failed elements, so the elements that keep failing end up
+ * written alone. After jdbc.writeBehind.maxAttempts failed writes an element is discarded and passed to
+ * the dead letter handler, by default it is reported on the standard error.
+ * <p>
+ * When the buffer is full the callers wait for a flush up to jdbc.writeBehind.blockTimeoutMs, then they
+ * fail with a RejectedExecutionException.
+ *
+ * @param <T> Type of the elements
+ */
+public class WriteBehindBuffer<T> implements AutoCloseable {
+
+    private static final String BATCH_SIZE = "jdbc.writeBehind.batchSize";
+    private static final String MAX_SIZE = "jdbc.writeBehind.maxSize";
+    private static final String FLUSH_INTERVAL = "jdbc.writeBehind.flushIntervalMs";
+    private static final String BLOCK_TIMEOUT = "jdbc.writeBehind.blockTimeoutMs";
+    private static final String MAX_ATTEMPTS = "jdbc.writeBehind.maxAttempts";
+    private static final String MAX_BACKOFF = "jdbc.writeBehind.maxBackoffMs";
+
+    private static final AtomicInteger count = new AtomicInteger();
+
+    private final Function<T, Integer> idGetter;
+    private final UnaryOperator<T> copier;
+    private final Consumer<List<T>> writer;
+    private final int batchSize;
+    private final int maxSize;
+    private final long flushIntervalMs;
+    private final long blockTimeoutMs;
+    private final int maxAttempts;
+    private final long maxBackoffMs;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final Condition flushNeeded = lock.newCondition();
+    // Only one flush at a time, so the versions of an element are not reordered
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final Map<Integer, T> pending = new LinkedHashMap<>();
+    // Failed writes of the pending elements by id
+    private final Map<Integer, Integer> failures = new HashMap<>();
+    private volatile BiConsumer<T, RuntimeException> deadLetterHandler = (element, e) -> System.err.printf(
+            "The write-behind element %s was discarded after his failed writes: %s%n", element, e);
+    private final Thread flusher;
+    private boolean closed;
+
+    /**
+     * Creates a new buffer configured with the jdbc.writeBehind properties
+     *
+     * @param idGetter gets the id of an element
+     * @param copier   copies an element when it is added, so the caller can keep changing it
+     * @param writer   writes a batch of elements with the session bound to the current thread
+     */
+    public WriteBehindBuffer(Function<T, Integer> idGetter, UnaryOperator<T> copier, Consumer<List<T>> writer) {
+        this(idGetter, copier, writer,
+                JDBCUtils.getIntProperty(BATCH_SIZE, JDBCUtils.getIntProperty("jdbc.batch.size", 500)),
+                JDBCUtils.getIntProperty(MAX_SIZE, 10_000),
+                JDBCUtils.getLongProperty(FLUSH_INTERVAL, 1000),
+                JDBCUtils.getLongProperty(BLOCK_TIMEOUT, 30_000),
+                JDBCUtils.getIntProperty(MAX_ATTEMPTS, 10),
+                JDBCUtils.getLongProperty(MAX_BACKOFF, 60_000));
+    }
+
+    /**
+     * Creates a new buffer
+     *
+     * @param idGetter        gets the id of an element
+     * @param copier          copies an element when it is added, so the caller can keep changing it
+     * @param writer          writes a batch of elements with the session bound to the current thread
+     * @param batchSize       max amount of elements written in each batch, a full batch is flushed at once
+     * @param maxSize         max amount of pending elements
+     * @param flushIntervalMs max time an element waits to be written
+     * @param blockTimeoutMs  max time a caller waits when the buffer is full
+     * @param maxAttempts     max amount of failed writes of an element before it is discarded
+     * @param maxBackoffMs    max time the background flushes wait after consecutive failures
+     */
+    public WriteBehindBuffer(Function<T, Integer> idGetter, UnaryOperator<T> copier, Consumer<List<T>> writer,
+                             int batchSize, int maxSize, long flushIntervalMs, long blockTimeoutMs,
+                             int maxAttempts, long maxBackoffMs) {
+        if (batchSize < 1 || maxSize < batchSize) {
+            throw new IllegalArgumentException("The batch size must be at least 1 and not greater than the max size");
+        }
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("The max attempts must be at least 1");
+        }
+
+        this.idGetter = idGetter;
+        this.copier = copier;
+        this.writer = writer;
+        this.batchSize = batchSize;
+        this.maxSize = maxSize;
+        this.flushIntervalMs = flushIntervalMs;
+        this.blockTimeoutMs = blockTimeoutMs;
+        this.maxAttempts = maxAttempts;
+        this.maxBackoffMs = maxBackoffMs;
+
+        this.flusher = new Thread(this::flushInBackground, "jdbc-write-behind-" + count.incrementAndGet());
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Adds an element to write, replacing the pending version of the same element if any
+     *
+     * @param element element to write, it is copied
+     * @throws RejectedExecutionException if the buffer is still full after the block timeout
+     */
+    public void add(T element) {
+        T copy = copier.apply(element);
+        Integer id = idGetter.apply(copy);
+
+        lock.lock();
+        try {
+            assertOpened();
+            long nanos = TimeUnit.MILLISECONDS.toNanos(blockTimeoutMs);
+            while (pending.size() >= maxSize && !pending.containsKey(id)) {
+                flushNeeded.signal();
+                if (nanos <= 0) {
+                    throw new RejectedExecutionException("The write-behind buffer is full");
+                }
+                nanos = notFull.awaitNanos(nanos);
+                assertOpened();
+            }
+
+            pending.put(id, copy);
+            // The new version may not fail like the previous one
+            failures.remove(id);
+            if (pending.size() >= batchSize) {
+                flushNeeded.signal();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for the write-behind buffer", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Discards the pending version of an element, e.g. because it is deleted
+     *
+     * @param id id of the element
+     */
+    public void remove(Integer id) {
+        lock.lock();
+        try {
+            failures.remove(id);
+            if (pending.remove(id) != null) {
+                notFull.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sets the handler of the elements discarded after maxAttempts failed writes, it receives the
+     * element with the failure of his last write
+     */
+    public void setDeadLetterHandler(BiConsumer<T, RuntimeException> deadLetterHandler) {
+        this.deadLetterHandler = deadLetterHandler;
+    }
+
+    /**
+     * Amount of elements waiting to be written
+     */
+    public int getPendingCount() {
+        lock.lock();
+        try {
+            return pending.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes all the pending elements, including the ones added by other threads while it runs, and waits
+     * for the flush in progress if any
+     *
+     * @throws RuntimeException the failure of a batch, it goes back to the buffer or to the dead letter handler
+     */
+    public void flush() {
+        flushLock.lock();
+        try {
+            List<T> batch;
+            while (!(batch = takeBatch()).isEmpty()) {
+                write(batch);
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Stops the background flushes and writes the pending elements
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            flushNeeded.signal();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    private void flushInBackground() {
+        int failedFlushes = 0;
+        while (true) {
+            lock.lock();
+            try {
+                if (failedFlushes > 0) {
+                    // Waits the whole backoff even if a full batch is waiting, only the close ends it
+                    long nanos = TimeUnit.MILLISECONDS.toNanos(backoffMs(failedFlushes));
+                    while (!closed && nanos > 0) {
+                        nanos = flushNeeded.awaitNanos(nanos);
+                    }
+                } else if (!closed && pending.size() < batchSize) {
+                    flushNeeded.await(flushIntervalMs, TimeUnit.MILLISECONDS);
+                }
+                if (closed) {
+                    return;
+                }
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                flush();
+                failedFlushes = 0;
+            } catch (RuntimeException e) {
+                failedFlushes++;
+                System.err.printf("The write-behind flush failed, it will be retried in %d ms: %s%n",
+                        backoffMs(failedFlushes), e);
+            }
+        }
+    }
+
+    /**
+     * Time to wait before the next flush, it doubles with each consecutive failure from the flush interval
+     */
+    private long backoffMs(int failedFlushes) {
+        long backoff = Math.max(flushIntervalMs, 1) << Math.min(failedFlushes - 1, 30);
+        return Math.min(backoff, maxBackoffMs);
+    }
+
+    private List<T> takeBatch() {
+        lock.lock();
+        try {
+            List<T> batch = new ArrayList<>(Math.min(batchSize, pending.size()));
+            int limit = batchSize;
+            Iterator<Map.Entry<Integer, T>> entries = pending.entrySet().iterator();
+            while (batch.size() < limit && entries.hasNext()) {
+                Map.Entry<Integer, T> entry = entries.next();
+                // An element that failed n times goes in a batch of at most batchSize / 2^n elements
+                int failed = failures.getOrDefault(entry.getKey(), 0);
+                limit = Math.min(limit, Math.max(batchSize >> Math.min(failed, 31), 1));
+                if (batch.size() >= limit) {
+                    break;
+                }
+                batch.add(entry.getValue());
+                entries.remove();
+            }
+
+            if (!batch.isEmpty()) {
+                notFull.signalAll();
+            }
+            return batch;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void write(List<T> batch) {
+        try (JDBCSession session = JDBCSession.openDetached()) {
+            session.runInScope(() -> session.onTransaction(() -> writer.accept(batch)));
+        } catch (RuntimeException e) {
+            requeue(batch, e);
+            throw e;
+        }
+
+        lock.lock();
+        try {
+            for (T element : batch) {
+                failures.remove(idGetter.apply(element));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Puts back a failed batch before the pending elements, so the versions are still written in order.
+     * The elements added after it are newer and they are kept, and the elements that failed maxAttempts
+     * times go to the dead letter handler.
+     */
+    private void requeue(List<T> batch, RuntimeException failure) {
+        List<T> discarded = new ArrayList<>();
+        lock.lock();
+        try {
+            Map<Integer, T> retried = new LinkedHashMap<>();
+            for (T element : batch) {
+                Integer id = idGetter.apply(element);
+                if (pending.containsKey(id)) {
+                    continue;
+                }
+
+                if (failures.merge(id, 1, Integer::sum) >= maxAttempts) {
+                    failures.remove(id);
+                    discarded.add(element);
+                } else {
+                    retried.put(id, element);
+                }
+            }
+
+            if (!retried.isEmpty()) {
+                retried.putAll(pending);
+                pending.clear();
+                pending.putAll(retried);
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        for (T element : discarded) {
+            deadLetterHandler.accept(element, failure);
+        }
+    }
+
+    private void assertOpened() {
+        if (closed) {
+            throw new IllegalStateException("The write-behind buffer is closed");
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package example.dao.writebehind;
+
+import example.dao.UpsertResult;
+import example.dao.UserDao;
+import example.model.User;
+
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * User Dao decorator that delays the updates and coalesces the updates of the same user, so a user
+ * updated many times is written once. See WriteBehindBuffer.
+ * <p>
+ * The pending updates are written from a background thread with sessions of their own, they are not
+ * part of the transaction of the caller. The other operations go to the delegate at once, the reads see
+ * the pending updates once they are flushed. Deleting a user discards his pending update. An update that
+ * keeps failing is discarded by the buffer and reported to his dead letter handler, the caller's user keeps
+ * his changes so he can be updated again.
+ * <p>
+ * The delegate must use the session bound to the current thread, as the DAO's of DaoFactory.buildUserDao().
+ * The Dao must be closed to write the last updates and stop his thread.
+ */
+public class WriteBehindUserDao implements UserDao, AutoCloseable {
+
+    private final UserDao delegate;
+    private final WriteBehindBuffer<User> buffer;
+
+    /**
+     * Decorator configured with the jdbc.writeBehind properties
+     *
+     * @param delegate Dao that writes the updates
+     */
+    public WriteBehindUserDao(UserDao delegate) {
+        this.delegate = delegate;
+        this.buffer = new WriteBehindBuffer<>(User::getId, WriteBehindUserDao::copy, delegate::updateAll);
+    }
+
+    /**
+     * Decorator that writes the updates through the given buffer, his writer must use the delegate
+     */
+    public WriteBehindUserDao(UserDao delegate, WriteBehindBuffer<User> buffer) {
+        this.delegate = delegate;
+        this.buffer = buffer;
+    }
+
+    @Override
+    public Optional<User> get(Integer id) {
+        return delegate.get(id);
+    }
+
+    @Override
+    public List<User> getAll() {
+        return delegate.getAll();
+    }
+
+    @Override
+    public Map<Integer, User> getAll(Collection<Integer> ids) {
+        return delegate.getAll(ids);
+    }
+
+    @Override
+    public List<User> getPage(Integer afterId, int limit) {
+        return delegate.getPage(afterId, limit);
+    }
+
+    @Override
+    public Stream<User> stream() {
+        return delegate.stream();
+    }
+
+    @Override
+    public Stream<User> parallelStream(int partitions) {
+        return delegate.parallelStream(partitions);
+    }
+
+    @Override
+    public void save(User user) {
+        delegate.save(user);
+    }
+
+    /**
+     * Adds the update to the buffer, it is written later with all the columns of the user.
+     * <p>
+     * The changes of the user are not cleared, as the write may still fail: after a failed flush, even
+     * one that discarded the update, updating the user again buffers him again. A user without changes
+     * since it was loaded has nothing to write and it is skipped.
+     */
+    @Override
+    public void update(User user) {
+        if (user.changedProperties() != 0) {
+            buffer.add(user);
+        }
+    }
+
+    @Override
+    public void delete(User user) {
+        buffer.remove(user.getId());
+        delegate.delete(user);
+    }
+
+    /**
+     * Upserts the user at once discarding his pending update, that is older
+     */
+    @Override
+    public UpsertResult upsert(User user) {
+        if (user.getId() != null) {
+            buffer.remove(user.getId());
+        }
+        return delegate.upsert(user);
+    }
+
+    /**
+     * Upserts the users at once discarding their pending updates, that are older
+     */
+    @Override
+    public List<UpsertResult> upsertAll(Collection<User> users) {
+        users.stream().map(User::getId).filter(Objects::nonNull).forEach(buffer::remove);
+        return delegate.upsertAll(users);
+    }
+
+    @Override
+    public void saveAll(Collection<User> users) {
+        delegate.saveAll(users);
+    }
+
+    /**
+     * Adds the updates to the buffer, they are written later
+     */
+    @Override
+    public void updateAll(Collection<User> users) {
+        users.forEach(this::update);
+    }
+
+    @Override
+    public void deleteAll(Collection<User> users) {
+        users.forEach(user -> buffer.remove(user.getId()));
+        delegate.deleteAll(users);
+    }
+
+    @Override
+    public Set<User> getContacts(User user) {
+        return delegate.getContacts(user);
+    }
+
+    @Override
+    public void populateContacts(User user) {
+        delegate.populateContacts(user);
+    }
+
+    @Override
+    public void populateContacts(Collection<User> users) {
+        delegate.populateContacts(users);
+    }
+
+    @Override
+    public void addContact(User user, User contact) {
+        delegate.addContact(user, contact);
+    }
+
+    @Override
+    public void addContacts(User user, Collection<User> contacts) {
+        delegate.addContacts(user, contacts);
+    }
+
+    @Override
+    public boolean addContactIfAbsent(User user, User contact) {
+        return delegate.addContactIfAbsent(user, contact);
+    }
+
+    @Override
+    public void deleteContact(User user, User contact) {
+        delegate.deleteContact(user, contact);
+    }
+
+    /**
+     * Writes all the pending updates and waits for them
+     */
+    public void flush() {
+        buffer.flush();
+    }
+
+    /**
+     * Writes the pending updates and stops the background flushes
+     */
+    @Override
+    public void close() {
+        buffer.close();
+    }
+
+    private static User copy(User user) {
+        User copy = new User(user.getName(), user.getEmail());
+        copy.setId(user.getId());
+        return copy;
+    }
+}
@@ -0,0 +1,310 @@
+package example.jdbc;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static java.lang.String.format;
+
+/**
+ * Bounded pool of JDBC connections.
+ * <p>
+ * The JDBCSession borrows a connection when it is opened and returns it when it is closed, so the
+ * physical connection (TCP, handshake and authentication) is reused between sessions and the amount
+ * of connections opened against the database never exceeds the max size.
+ */
+public class ConnectionPool implements AutoCloseable {
+
+    private final Supplier<Connection> connectionFactory;
+    private final int minSize;
+    private final int maxSize;
+    private final long acquireTimeoutMs;
+    private final long idleTimeoutMs;
+    private final long maxLifetimeMs;
+    private final long validationIntervalMs;
+    private final int validationTimeoutSeconds;
+
+    // One permit per connection that can be borrowed at the same time
+    private final Semaphore permits;
+    // Idle connections, the most recently used first to let the others expire
+    private final Deque<PooledConnection> idle = new ConcurrentLinkedDeque<>();
+    // Physical connections opened, idle or borrowed
+    private final AtomicInteger size = new AtomicInteger();
+    private final ScheduledExecutorService housekeeper;
+
+    private volatile boolean closed = false;
+
+    /**
+     * Creates a new pool
+     *
+     * @param connectionFactory        opens a new physical connection
+     * @param minSize                  amount of connections the pool tries to keep opened
+     * @param maxSize                  max amount of connections opened at the same time
+     * @param acquireTimeoutMs         max time to wait for a connection when all of them are borrowed
+     * @param idleTimeoutMs            time after an idle connection above the min size is closed, 0 to disable it
+     * @param maxLifetimeMs            time after a connection is closed once it is returned, 0 to disable it
+     * @param validationIntervalMs     connections idle for longer than this are validated on borrow
+     * @param validationTimeoutSeconds timeout of the validation of a connection
+     */
+    public ConnectionPool(Supplier<Connection> connectionFactory, int minSize, int maxSize,
+                          long acquireTimeoutMs, long idleTimeoutMs, long maxLifetimeMs,
+                          long validationIntervalMs, int validationTimeoutSeconds) {
+
+        if (maxSize < 1 || minSize < 0 || minSize > maxSize) {
+            throw new IllegalArgumentException(format("Invalid pool size min: %d max: %d", minSize, maxSize));
+        }
+
+        this.connectionFactory = connectionFactory;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.acquireTimeoutMs = acquireTimeoutMs;
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.maxLifetimeMs = maxLifetimeMs;
+        this.validationIntervalMs = validationIntervalMs;
+        this.validationTimeoutSeconds = validationTimeoutSeconds;
+        this.permits = new Semaphore(maxSize, true);
+
+        housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "jdbc-pool-housekeeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        long period = idleTimeoutMs > 0 ? Math.min(idleTimeoutMs, 30_000) : 30_000;
+        housekeeper.scheduleWithFixedDelay(this::housekeeping, 0, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrows a connection from the pool, opening a new one if there is no idle connection available
+     * <p>
+     * Note: the caller must return the connection with release after use it
+     *
+     * @return A valid connection to the database
+     * @throws SimpleSQLException if no connection was available before the acquire timeout
+     */
+    public PooledConnection borrow() {
+        if (closed) {
+            throw new IllegalStateException("The connection pool is closed");
+        }
+
+        try {
+            if (!permits.tryAcquire(acquireTimeoutMs, TimeUnit.MILLISECONDS)) {
+                throw new SimpleSQLException(new SQLTransientConnectionException(
+                        format("Timeout after %d ms waiting for a connection", acquireTimeoutMs)));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SimpleSQLException(
+                    new SQLTransientConnectionException("Interrupted while waiting for a connection", e));
+        }
+
+        try {
+            while (true) {
+                PooledConnection pooled;
+                while ((pooled = idle.pollFirst()) != null) {
+                    if (isUsable(pooled)) {
+                        return pooled;
+                    }
+                    discard(pooled);
+                }
+
+                // It only fails while the housekeeping opens a connection, then it is taken from the idle ones
+                if (reserve(maxSize)) {
+                    return open();
+                }
+            }
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns a connection to the pool restoring the auto commit, read only and isolation level.
+     * <p>
+     * Connections that can not be restored or that exceeded the max lifetime are closed.
+     *
+     * @param pooled connection borrowed from this pool
+     */
+    public void release(PooledConnection pooled) {
+        try {
+            if (closed || pooled.isExpired(System.currentTimeMillis(), maxLifetimeMs) || !reset(pooled)) {
+                discard(pooled);
+            } else {
+                pooled.touch();
+                idle.offerFirst(pooled);
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Closes all the idle connections, the borrowed ones are going to be closed when they are returned
+     */
+    @Override
+    public void close() {
+        closed = true;
+        housekeeper.shutdownNow();
+
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            discard(pooled);
+        }
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Amount of physical connections opened, idle or borrowed
+     */
+    public int getSize() {
+        return size.get();
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    public int getActiveCount() {
+        return maxSize - permits.availablePermits();
+    }
+
+    private boolean isUsable(PooledConnection pooled) {
+        long now = System.currentTimeMillis();
+
+        if (pooled.isExpired(now, maxLifetimeMs)) {
+            return false;
+        }
+
+        if (pooled.idleMillis(now) < validationIntervalMs) {
+            return true;
+        }
+
+        try {
+            return pooled.getConnection().isValid(validationTimeoutSeconds);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private boolean reset(PooledConnection pooled) {
+        Connection connection = pooled.getConnection();
+
+        try {
+            if (connection.isClosed()) {
+                return false;
+            }
+
+            if (!connection.getAutoCommit()) {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+
+            if (connection.isReadOnly()) {
+                connection.setReadOnly(false);
+            }
+
+            if (connection.getTransactionIsolation() != pooled.getDefaultIsolation()) {
+                connection.setTransactionIsolation(pooled.getDefaultIsolation());
+            }
+
+            connection.clearWarnings();
+            return true;
+        } catch (SQLException e) {
+            JDBCUtils.printSQLException(e);
+            return false;
+        }
+    }
+
+    /**
+     * Reserves the capacity of a new connection if there are less than limit opened
+     */
+    private boolean reserve(int limit) {
+        int current;
+        do {
+            current = size.get();
+            if (current >= limit) {
+                return false;
+            }
+        } while (!size.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    /**
+     * Opens a new connection with the capacity already reserved, it is released if the open fails
+     */
+    private PooledConnection open() {
+        Connection connection = null;
+        try {
+            connection = connectionFactory.get();
+            return new PooledConnection(connection);
+        } catch (RuntimeException e) {
+            // The connection may be opened and fail reading his defaults
+            JDBCUtils.closeQuietly(connection);
+            size.decrementAndGet();
+            throw e;
+        }
+    }
+
+    private void discard(PooledConnection pooled) {
+        size.decrementAndGet();
+
+        try {
+            pooled.getConnection().close();
+        } catch (SQLException e) {
+            JDBCUtils.printSQLException(e);
+        }
+    }
+
+    /**
+     * Closes the idle connections that expired and opens new ones until the min size is reached.
+     * <p>
+     * Each new connection takes a permit while it is opened, as a borrow, so the idle and the borrowed
+     * connections never exceed the max size.
+     */
+    private void housekeeping() {
+        long now = System.currentTimeMillis();
+
+        for (PooledConnection pooled : idle) {
+            boolean idleTooLong = idleTimeoutMs > 0 && pooled.idleMillis(now) >= idleTimeoutMs
+                    && size.get() > minSize;
+
+            // If the remove fails the connection was borrowed in the meantime
+            if ((idleTooLong || pooled.isExpired(now, maxLifetimeMs)) && idle.removeFirstOccurrence(pooled)) {
+                discard(pooled);
+            }
+        }
+
+        try {
+            while (!closed && size.get() < minSize && permits.tryAcquire()) {
+                try {
+                    if (!reserve(minSize)) {
+                        break;
+                    }
+
+                    PooledConnection pooled = open();
+                    idle.offerLast(pooled);
+                    // The pool may have been closed after his idle connections were closed
+                    if (closed && idle.removeFirstOccurrence(pooled)) {
+                        discard(pooled);
+                    }
+                } finally {
+                    permits.release();
+                }
+            }
+        } catch (RuntimeException e) {
+            System.err.println("The connection pool could not open the min amount of connections: " + e);
+        }
+    }
+}
@@ -1,57 +1,580 @@
 package example.jdbc;
 
+import example.jdbc.metrics.JDBCMetrics;
+
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import static java.lang.String.format;
 
 /**
  * Produces ThreadLocal JDBCSession that contains an instance of the connection.
  * This help us to avoid send the connection in every function as an argument
+ * <p>
+ * A session can also be opened detached from the thread and passed explicitly to the DAO's. The session
+ * path doesn't use synchronized blocks, the pool waits on a semaphore, so virtual threads waiting for a
+ * connection don't pin their carrier thread.
  */
 public class JDBCSession implements AutoCloseable {
 
     private final static ThreadLocal<JDBCSession> localSession = new ThreadLocal<>();
+    private final static String STATEMENT_CACHE_SIZE = "jdbc.statementCache.size";
+    private final static String FETCH_SIZE = "jdbc.fetch.size";
+    private final static String IDENTITY_MAP_CLEAR_ON_ROLLBACK = "jdbc.identityMap.clearOnRollback";
+    private final static ReplicaRouter NO_REPLICAS =
+            new ReplicaRouter(Collections.emptyList(), ReplicaRouter.Balancing.ROUND_ROBIN, false);
 
-    private final Connection connection;
+    private final ConnectionPool primaryPool;
+    private final ReplicaRouter replicaRouter;
+    private final int statementCacheSize;
+    private final boolean monitored;
+    // Connections borrowed on the first use, so a session that only reads doesn't use the primary
+    private SessionConnection primary;
+    private SessionConnection replica;
+    // Sessions of the shards, opened on the first use
+    private JDBCSession[] shardSessions;
+    private boolean pinnedToPrimary = false;
+    private final List<Statement> streamingStatements = new ArrayList<>();
+    private final List<Runnable> afterTransactionActions = new ArrayList<>();
+    private final List<Runnable> afterCommitActions = new ArrayList<>();
+    private final List<Runnable> afterRollbackActions = new ArrayList<>();
+    private final Map<Class<?>, Map<Object, Object>> identityMap = new HashMap<>();
+    private int transactionDepth = 0;
+    // A shard session in the transaction of his parent session, it is committed or rolled back with it
+    private boolean joinedTransaction = false;
     private boolean closed = false;
 
     private JDBCSession() {
-        connection = JDBCUtils.openConnection();
+        this(JDBCUtils.getConnectionPool(), JDBCUtils.getReplicaRouter());
+    }
+
+    private JDBCSession(ConnectionPool primaryPool, ReplicaRouter replicaRouter) {
+        this.primaryPool = primaryPool;
+        this.replicaRouter = replicaRouter;
+        this.statementCacheSize = JDBCUtils.getIntProperty(STATEMENT_CACHE_SIZE, 64);
+
+        JDBCMetrics metrics = JDBCMetrics.get();
+        monitored = metrics.isEnabled();
+        if (monitored) {
+            metrics.sessionOpened();
+        }
     }
 
     /**
      * Implementation of auto closeable
      * <p>
-     * Closes all the resources opened by the session.
+     * Closes all the resources opened by the session and returns the connections to the pools.
      */
     @Override
     public void close() {
+        if (closed) {
+            return;
+        }
+
         closed = true;
-        localSession.remove();
+        if (localSession.get() == this) {
+            localSession.remove();
+        }
+        identityMap.clear();
         try {
-            connection.close();
-        } catch (SQLException e) {
-            throw new SimpleSQLException(e);
+            streamingStatements.forEach(JDBCUtils::closeQuietly);
+            streamingStatements.clear();
+        } finally {
+            if (shardSessions != null) {
+                for (JDBCSession shardSession : shardSessions) {
+                    if (shardSession != null) {
+                        shardSession.close();
+                    }
+                }
+            }
+            closeQuietly(replica);
+            closeQuietly(primary);
+            replica = null;
+            primary = null;
+            if (monitored) {
+                JDBCMetrics.get().sessionClosed();
+            }
         }
     }
 
     /**
      * Delegate function of JDBCUtils.onTransaction
+     * <p>
+     * If the transaction is rolled back the identity map is cleared, unless the property
+     * jdbc.identityMap.clearOnRollback is false, as his entities may contain changes that were not saved
      *
      * @param doOnTransaction Code to execute inside the transaction
      */
     public void onTransaction(Runnable doOnTransaction) {
-        JDBCUtils.onTransaction(connection, (c) -> doOnTransaction.run());
+        if (joinedTransaction) {
+            // The transaction of the parent session commits or rolls back the connection
+            transactionDepth++;
+            try {
+                doOnTransaction.run();
+            } finally {
+                transactionDepth--;
+            }
+            return;
+        }
+
+        boolean[] executed = {false};
+
+        transactionDepth++;
+        try {
+            JDBCUtils.onTransaction(getConnection(), (c) -> {
+                doOnTransaction.run();
+                executed[0] = true;
+            });
+        } catch (RuntimeException e) {
+            executed[0] = false;
+            throw e;
+        } finally {
+            if (!executed[0] && Boolean.parseBoolean(JDBCUtils.getProperty(IDENTITY_MAP_CLEAR_ON_ROLLBACK, "true"))) {
+                clearEntities();
+            }
+
+            if (--transactionDepth == 0) {
+                runOutcomeActions(executed[0]);
+                runAfterTransactionActions();
+            }
+        }
+    }
+
+    /**
+     * Indicates if the session is executing the code of onTransaction
+     */
+    public boolean isInTransaction() {
+        return transactionDepth > 0;
+    }
+
+    /**
+     * Executes the action once the current transaction finishes, with a commit or a rollback, or
+     * immediately if there is no transaction in progress.
+     *
+     * @param action Code to execute after the transaction
+     */
+    public void afterTransaction(Runnable action) {
+        if (isInTransaction()) {
+            afterTransactionActions.add(action);
+        } else {
+            action.run();
+        }
+    }
+
+    /**
+     * Executes the action once the current transaction is committed, or immediately if there is no
+     * transaction in progress. If the transaction is rolled back the action is discarded.
+     *
+     * @param action Code to execute after the commit
+     */
+    public void afterCommit(Runnable action) {
+        if (isInTransaction()) {
+            afterCommitActions.add(action);
+        } else {
+            action.run();
+        }
+    }
+
+    /**
+     * Executes the action if the current transaction is rolled back, e.g. to undo changes done in memory.
+     * Without a transaction in progress there is nothing to roll back and the action is discarded.
+     *
+     * @param action Code to execute after the rollback
+     */
+    public void afterRollback(Runnable action) {
+        if (isInTransaction()) {
+            afterRollbackActions.add(action);
+        }
+    }
+
+    /**
+     * Runs all the actions of the outcome even if some of them fail, e.g. every shard session is committed,
+     * and then throws the first failure
+     */
+    private void runOutcomeActions(boolean committed) {
+        List<Runnable> actions = new ArrayList<>(committed ? afterCommitActions : afterRollbackActions);
+        afterCommitActions.clear();
+        afterRollbackActions.clear();
+
+        RuntimeException failure = null;
+        for (Runnable action : actions) {
+            try {
+                action.run();
+            } catch (RuntimeException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void runAfterTransactionActions() {
+        List<Runnable> actions = new ArrayList<>(afterTransactionActions);
+        afterTransactionActions.clear();
+        actions.forEach(Runnable::run);
+    }
+
+    /**
+     * Gets an entity already loaded by the session
+     *
+     * @param type type of the entity
+     * @param id   id of the entity
+     * @return The instance loaded by the session or null if it was not loaded
+     */
+    public <T> T getEntity(Class<T> type, Object id) {
+        Map<Object, Object> entities = identityMap.get(type);
+        return entities == null ? null : type.cast(entities.get(id));
+    }
+
+    /**
+     * Registers an entity loaded by the session, so the following loads of the same entity return
+     * the same instance
+     *
+     * @param type   type of the entity
+     * @param id     id of the entity
+     * @param entity the entity loaded
+     * @return The instance registered before for the same id or the entity if there was none
+     */
+    public <T> T registerEntity(Class<T> type, Object id, T entity) {
+        Object registered = identityMap.computeIfAbsent(type, t -> new HashMap<>()).putIfAbsent(id, entity);
+        return registered == null ? entity : type.cast(registered);
     }
 
     /**
-     * Retrieves the JDBC connection associated with the session.
+     * Removes an entity from the session, e.g. after delete it
+     *
+     * @param type type of the entity
+     * @param id   id of the entity
+     */
+    public void evictEntity(Class<?> type, Object id) {
+        Map<Object, Object> entities = identityMap.get(type);
+        if (entities != null) {
+            entities.remove(id);
+        }
+    }
+
+    /**
+     * Removes all the entities of a type from the session, e.g. after a delete in cascade
+     *
+     * @param type type of the entities
+     */
+    public void evictEntities(Class<?> type) {
+        identityMap.remove(type);
+    }
+
+    /**
+     * Removes all the entities loaded by the session
+     */
+    public void clearEntities() {
+        identityMap.clear();
+    }
+
+    /**
+     * Retrieves the JDBC connection to the primary associated with the session.
      * <p>
      * Be aware that maybe closed
      *
      * @return JDBC connection
      */
     public Connection getConnection() {
-        return connection;
+        return primary().getConnection();
+    }
+
+    /**
+     * Retrieves a prepared statement from the statement cache of the primary connection of the session
+     * <p>
+     * Note: the caller must not close the statement, it is closed with the session
+     *
+     * @param sql SQL of the statement
+     * @return A prepared statement ready to bind the parameters
+     * @throws SQLException If the statement could not be prepared
+     */
+    public PreparedStatement prepareStatement(String sql) throws SQLException {
+        return prepareStatement(sql, Statement.NO_GENERATED_KEYS);
+    }
+
+    /**
+     * Retrieves a prepared statement from the statement cache of the primary connection of the session.
+     * <p>
+     * The statement is considered a write, so with jdbc.replicas.readYourWrites the following reads of the
+     * session go to the primary too.
+     * <p>
+     * Note: the caller must not close the statement, it is closed with the session
+     *
+     * @param sql               SQL of the statement
+     * @param autoGeneratedKeys Statement.RETURN_GENERATED_KEYS or Statement.NO_GENERATED_KEYS
+     * @return A prepared statement ready to bind the parameters
+     * @throws SQLException If the statement could not be prepared
+     */
+    public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+        pinnedToPrimary |= replicaRouter.isReadYourWrites();
+        return primary().getStatementCache().prepareStatement(sql, autoGeneratedKeys);
+    }
+
+    /**
+     * Retrieves a prepared statement for a read only query, it is prepared on a read replica unless
+     * there are no replicas, the session is in a transaction or it must read his own writes.
+     * <p>
+     * Note: the caller must not close the statement, it is closed with the session
+     *
+     * @param sql SQL of the query
+     * @return A prepared statement ready to bind the parameters
+     * @throws SQLException If the statement could not be prepared
+     */
+    public PreparedStatement prepareReadStatement(String sql) throws SQLException {
+        return readConnection().getStatementCache().prepareStatement(sql, Statement.NO_GENERATED_KEYS);
+    }
+
+    /**
+     * Prepares a forward only statement to stream a big result set, the rows are fetched from the
+     * database in blocks of jdbc.fetch.size rows instead of loading all of them in memory. As a read only
+     * query it is routed as prepareReadStatement.
+     * <p>
+     * The statement is not cached, the caller should close it after use it, in any case it is closed
+     * with the session.
+     *
+     * @param sql SQL of the statement
+     * @return A prepared statement ready to bind the parameters
+     * @throws SQLException If the statement could not be prepared
+     */
+    public PreparedStatement prepareStreamingStatement(String sql) throws SQLException {
+        streamingStatements.removeIf(JDBCSession::isClosedStatement);
+
+        PreparedStatement statement = readConnection().getConnection()
+                .prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        streamingStatements.add(statement);
+        statement.setFetchSize(JDBCUtils.getIntProperty(FETCH_SIZE, 1000));
+        return statement;
+    }
+
+    /**
+     * Retrieves the statement cache of the primary connection to check his hit and miss counters
+     */
+    public StatementCache getStatementCache() {
+        return primary().getStatementCache();
+    }
+
+    /**
+     * Indicates if the reads of the session go to the primary because it has written and
+     * jdbc.replicas.readYourWrites is enabled
+     */
+    public boolean isPinnedToPrimary() {
+        return pinnedToPrimary;
+    }
+
+    /**
+     * Gets the session of a shard, it is opened on the first use and closed with this session.
+     * <p>
+     * The shard sessions are detached. When this session is in a transaction the shard session joins it:
+     * his connection leaves autocommit and it is committed or rolled back once the transaction of this
+     * session is, after the primary. There is no two phase commit, a shard that fails to commit is thrown
+     * once the other shards are committed. As any session, each shard session must be used by one thread
+     * at a time.
+     *
+     * @param shard index of the shard, see ShardRouter
+     * @return The session of the shard
+     */
+    public JDBCSession getShardSession(int shard) {
+        assertOpened();
+        ShardRouter shardRouter = JDBCUtils.getShardRouter();
+        if (shardSessions == null) {
+            shardSessions = new JDBCSession[shardRouter.getShardCount()];
+        }
+        if (shardSessions[shard] == null) {
+            shardSessions[shard] = new JDBCSession(shardRouter.getPool(shard), NO_REPLICAS);
+        }
+
+        JDBCSession shardSession = shardSessions[shard];
+        if (isInTransaction() && !shardSession.joinedTransaction) {
+            shardSession.joinTransaction(this);
+        }
+        return shardSession;
+    }
+
+    /**
+     * Starts a transaction in this shard session that ends with the transaction of the parent session
+     */
+    private void joinTransaction(JDBCSession parent) {
+        try {
+            getConnection().setAutoCommit(false);
+        } catch (SQLException e) {
+            throw new SimpleSQLException(e);
+        }
+
+        joinedTransaction = true;
+        transactionDepth++;
+        parent.afterCommit(() -> endJoinedTransaction(true));
+        parent.afterRollback(() -> endJoinedTransaction(false));
+    }
+
+    private void endJoinedTransaction(boolean commit) {
+        boolean committed = false;
+        try {
+            Connection connection = getConnection();
+            try {
+                if (commit) {
+                    connection.commit();
+                    committed = true;
+                } else {
+                    connection.rollback();
+                }
+            } catch (SQLException e) {
+                try {
+                    connection.rollback();
+                } catch (SQLException rollbackFailure) {
+                    e.addSuppressed(rollbackFailure);
+                }
+                throw new SimpleSQLException(e);
+            } finally {
+                try {
+                    connection.setAutoCommit(true);
+                } catch (SQLException e) {
+                    JDBCUtils.printSQLException(e);
+                }
+            }
+        } finally {
+            joinedTransaction = false;
+            transactionDepth--;
+            if (!committed && Boolean.parseBoolean(JDBCUtils.getProperty(IDENTITY_MAP_CLEAR_ON_ROLLBACK, "true"))) {
+                clearEntities();
+            }
+            runOutcomeActions(committed);
+            runAfterTransactionActions();
+        }
+    }
+
+    /**
+     * Opens a new detached session on the same databases than this one, e.g. to read partitions of a
+     * table in parallel, each one with his own connection.
+     * <p>
+     * It can be called from any thread, the new session is independent and must be closed by the caller
+     */
+    public JDBCSession fork() {
+        return new JDBCSession(primaryPool, replicaRouter);
+    }
+
+    private SessionConnection primary() {
+        assertOpened();
+        if (primary == null) {
+            primary = new SessionConnection(primaryPool, statementCacheSize);
+        }
+        return primary;
+    }
+
+    /**
+     * Connection for the read only queries, a replica when the session can read from it, the primary
+     * otherwise or if no replica is available
+     */
+    private SessionConnection readConnection() {
+        if (!replicaRouter.hasReplicas() || isInTransaction() || pinnedToPrimary) {
+            return primary();
+        }
+
+        assertOpened();
+        if (replica == null) {
+            for (ConnectionPool pool : replicaRouter.candidates()) {
+                try {
+                    replica = new SessionConnection(pool, statementCacheSize);
+                    break;
+                } catch (SimpleSQLException e) {
+                    // The replica is not available, trying the next one
+                }
+            }
+        }
+        return replica != null ? replica : primary();
+    }
+
+    private void assertOpened() {
+        if (closed) {
+            throw new IllegalStateException("The session is closed");
+        }
+    }
+
+    private static void closeQuietly(SessionConnection connection) {
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (RuntimeException e) {
+                System.err.println("The connection of the session could not be released: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Binds the session to the current thread while the action runs, restoring the session bound before,
+     * if any, when it finishes. This way a detached session can be used by the code that relies on
+     * current, like the session scope of a ScopedValue.
+     *
+     * @param action Code to execute with the session as the current one
+     */
+    public void runInScope(Runnable action) {
+        callInScope(() -> {
+            action.run();
+            return null;
+        });
+    }
+
+    /**
+     * Same as runInScope but returning the result of the action
+     *
+     * @param action Code to execute with the session as the current one
+     * @return The result of the action
+     */
+    public <R> R callInScope(Supplier<R> action) {
+        JDBCSession previous = localSession.get();
+        localSession.set(this);
+        try {
+            return action.get();
+        } finally {
+            if (previous == null) {
+                localSession.remove();
+            } else {
+                localSession.set(previous);
+            }
+        }
+    }
+
+    /**
+     * Max amount of connections of the pool of the session, it bounds the sessions forked from it that can
+     * run at the same time
+     */
+    public int getPoolMaxSize() {
+        return primaryPool.getMaxSize();
+    }
+
+    /**
+     * Session that loads lazily the associations of the entities read by this one: this session while
+     * it is open, otherwise the session opened in the current thread, e.g. for the entities returned by
+     * the async DAO's once their session is closed
+     *
+     * @param association description of the association for the error, e.g. "contacts of the users"
+     * @throws IllegalStateException if this session is closed and there is no session in the current thread
+     */
+    public JDBCSession lazyLoadingSession(String association) {
+        if (!closed) {
+            return this;
+        }
+
+        JDBCSession current = localSession.get();
+        if (current == null) {
+            throw new IllegalStateException(format("The %s can not be loaded, the session that loaded them is "
+                    + "closed and there is no session opened in the current thread", association));
+        }
+        return current;
     }
 
     /**
@@ -61,6 +584,14 @@ public class JDBCSession implements AutoCloseable {
         return closed;
     }
 
+    private static boolean isClosedStatement(Statement statement) {
+        try {
+            return statement.isClosed();
+        } catch (SQLException e) {
+            return true;
+        }
+    }
+
     // ------ Static management
 
     /**
@@ -80,6 +611,17 @@ public class JDBCSession implements AutoCloseable {
     }
 
 
+    /**
+     * Creates a new JDBCSession that is not bound to the current thread, to pass it explicitly to the
+     * DAO's, e.g. with many virtual threads, or to bind it only for a call with runInScope.
+     * <p>
+     * As the connection, the session is not thread safe, it can move between threads but it must be
+     * used by one of them at a time.
+     */
+    public static JDBCSession openDetached() {
+        return new JDBCSession();
+    }
+
     /**
      * Retrieves the current
      *
@@ -6,6 +6,9 @@ import java.io.InputStream;
 import java.sql.*;
 import java.util.*;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import static java.lang.String.format;
 
@@ -19,6 +22,23 @@ public abstract class JDBCUtils {
     private static final String JDBC_URL = "jdbc.url";
     private static final String JDBC_USER = "jdbc.user";
     private static final String JDBC_PASS = "jdbc.pass";
+    private static final String JDBC_POOL_MIN_SIZE = "jdbc.pool.minSize";
+    private static final String JDBC_POOL_MAX_SIZE = "jdbc.pool.maxSize";
+    private static final String JDBC_POOL_ACQUIRE_TIMEOUT = "jdbc.pool.acquireTimeoutMs";
+    private static final String JDBC_POOL_IDLE_TIMEOUT = "jdbc.pool.idleTimeoutMs";
+    private static final String JDBC_POOL_MAX_LIFETIME = "jdbc.pool.maxLifetimeMs";
+    private static final String JDBC_POOL_VALIDATION_INTERVAL = "jdbc.pool.validationIntervalMs";
+    private static final String JDBC_POOL_VALIDATION_TIMEOUT = "jdbc.pool.validationTimeoutSeconds";
+    private static final String JDBC_REPLICAS = "jdbc.replicas";
+    private static final String JDBC_REPLICAS_USER = "jdbc.replicas.user";
+    private static final String JDBC_REPLICAS_PASS = "jdbc.replicas.pass";
+    private static final String JDBC_REPLICAS_BALANCING = "jdbc.replicas.balancing";
+    private static final String JDBC_REPLICAS_READ_YOUR_WRITES = "jdbc.replicas.readYourWrites";
+    private static final String JDBC_SHARDS = "jdbc.shards";
+    private static final String JDBC_SHARDS_USER = "jdbc.shards.user";
+    private static final String JDBC_SHARDS_PASS = "jdbc.shards.pass";
+    private static final String JDBC_SHARDS_STRATEGY = "jdbc.shards.strategy";
+    private static final String JDBC_SHARDS_RANGES = "jdbc.shards.ranges";
 
     private final static Properties properties;
 
@@ -36,22 +56,119 @@ public abstract class JDBCUtils {
     /**
      * Opens a new connection with the configuration from the jbc properties
      * <p>
-     * Note: The caller must close the connection after use it
+     * Note: The caller must close the connection after use it, the sessions use the pooled connections
+     * from getConnectionPool instead
      *
      * @return A valid connection to the database
      */
     public static Connection openConnection() {
+        return openConnection(properties.getProperty(JDBC_URL),
+                properties.getProperty(JDBC_USER),
+                properties.getProperty(JDBC_PASS));
+    }
+
+    private static Connection openConnection(String url, String user, String pass) {
         try {
-            return DriverManager.getConnection(
-                    properties.getProperty(JDBC_URL),
-                    properties.getProperty(JDBC_USER),
-                    properties.getProperty(JDBC_PASS));
+            return DriverManager.getConnection(withAffectedRows(url), user, pass);
         } catch (SQLException e) {
             printSQLException(e);
             throw new SimpleSQLException(e);
         }
     }
 
+    /**
+     * Adds useAffectedRows=true to the MySQL and MariaDB urls that don't set it. The upserts tell apart
+     * an unchanged row from an insert by the affected rows, and by default these drivers report the found
+     * rows instead, so the urls of the primary, the replicas and the shards can't disable it.
+     *
+     * @throws IllegalStateException if the url disables useAffectedRows
+     */
+    static String withAffectedRows(String url) {
+        if (url == null || !(url.startsWith("jdbc:mysql:") || url.startsWith("jdbc:mariadb:"))) {
+            return url;
+        }
+        if (url.contains("useAffectedRows=false")) {
+            throw new IllegalStateException("A jdbc url disables useAffectedRows, the upserts require it");
+        }
+        if (url.contains("useAffectedRows=true")) {
+            return url;
+        }
+        return url + (url.contains("?") ? "&" : "?") + "useAffectedRows=true";
+    }
+
+    /**
+     * Retrieves the connection pool shared by all the sessions, it is created on the first use
+     *
+     * @return The connection pool configured with the jdbc properties
+     */
+    public static ConnectionPool getConnectionPool() {
+        return PoolHolder.POOL;
+    }
+
+    /**
+     * Retrieves the router of the read replicas configured in jdbc.replicas, with a pool per replica
+     * configured as the primary pool, it is created on the first use
+     */
+    static ReplicaRouter getReplicaRouter() {
+        return ReplicaHolder.ROUTER;
+    }
+
+    /**
+     * Retrieves the router of the shards configured in jdbc.shards, with a pool per shard configured as
+     * the primary pool, it is created on the first use
+     */
+    public static ShardRouter getShardRouter() {
+        return ShardHolder.ROUTER;
+    }
+
+    /**
+     * Builds a connection pool with the pool configuration from the jdbc properties
+     *
+     * @param connectionFactory opens a new physical connection
+     * @return A new connection pool
+     */
+    public static ConnectionPool buildConnectionPool(Supplier<Connection> connectionFactory) {
+        return new ConnectionPool(connectionFactory,
+                getIntProperty(JDBC_POOL_MIN_SIZE, 1),
+                getIntProperty(JDBC_POOL_MAX_SIZE, 10),
+                getLongProperty(JDBC_POOL_ACQUIRE_TIMEOUT, 30_000),
+                getLongProperty(JDBC_POOL_IDLE_TIMEOUT, 600_000),
+                getLongProperty(JDBC_POOL_MAX_LIFETIME, 1_800_000),
+                getLongProperty(JDBC_POOL_VALIDATION_INTERVAL, 500),
+                getIntProperty(JDBC_POOL_VALIDATION_TIMEOUT, 5));
+    }
+
+    /**
+     * Gets a property from the jdbc properties
+     *
+     * @param key          name of the property
+     * @param defaultValue value if the property is not defined
+     */
+    public static String getProperty(String key, String defaultValue) {
+        String value = properties.getProperty(key);
+        return value == null || value.trim().isEmpty() ? defaultValue : value.trim();
+    }
+
+    /**
+     * Gets a numeric property from the jdbc properties
+     *
+     * @param key          name of the property
+     * @param defaultValue value if the property is not defined
+     */
+    public static int getIntProperty(String key, int defaultValue) {
+        return Integer.parseInt(getProperty(key, String.valueOf(defaultValue)));
+    }
+
+    /**
+     * Gets a numeric property from the jdbc properties
+     *
+     * @param key          name of the property
+     * @param defaultValue value if the property is not defined
+     */
+    public static long getLongProperty(String key, long defaultValue) {
+        return Long.parseLong(getProperty(key, String.valueOf(defaultValue)));
+    }
+
     /**
      * Fetch one the value from the ResultSet and converts it with the parser function
      * <p>
@@ -108,6 +225,153 @@ public abstract class JDBCUtils {
         return results;
     }
 
+    /**
+     * Fetch one the value from the ResultSet and converts it with the parser of the row mapper
+     * <p>
+     * Note: this function closes the result set after process it
+     *
+     * @param resultSet To get the result
+     * @param mapper    resolves the columns and returns the parser of the rows
+     * @param <T>       Type of the object that is providing the row mapper
+     * @return A an optional value of the T
+     */
+    public static <T> Optional<T> getSingleRow(ResultSet resultSet, RowMapper<T> mapper) {
+        try {
+            return getSingleValue(resultSet, mapper.forResultSet(resultSet));
+        } catch (SQLException e) {
+            closeQuietly(resultSet);
+            throw new SimpleSQLException(e);
+        }
+    }
+
+    /**
+     * Fetch all the values of the ResultSet and converts them with the parser of the row mapper
+     * <p>
+     * Note: this function closes the result set after process it
+     *
+     * @param resultSet To get the results
+     * @param mapper    resolves the columns and returns the parser of the rows
+     * @param <T>       Type of the object that is providing the row mapper
+     * @return A list of parsed results from the result set
+     */
+    public static <T> List<T> getAllRows(ResultSet resultSet, RowMapper<T> mapper) {
+        try {
+            return getAllValues(resultSet, mapper.forResultSet(resultSet));
+        } catch (SQLException e) {
+            closeQuietly(resultSet);
+            throw new SimpleSQLException(e);
+        }
+    }
+
+    /**
+     * Finds the index of each column in the result set, to read the rows by index instead of by name
+     *
+     * @param resultSet result set with the columns
+     * @param labels    labels of the columns, case insensitive
+     * @return The index of each column in the same order than the labels
+     * @throws SQLException If a column is not present in the result set
+     */
+    public static int[] columnIndexes(ResultSet resultSet, String... labels) throws SQLException {
+        ResultSetMetaData metaData = resultSet.getMetaData();
+        int columnCount = metaData.getColumnCount();
+        int[] indexes = new int[labels.length];
+
+        for (int i = 0; i < labels.length; i++) {
+            for (int column = 1; column <= columnCount && indexes[i] == 0; column++) {
+                if (labels[i].equalsIgnoreCase(metaData.getColumnLabel(column))) {
+                    indexes[i] = column;
+                }
+            }
+
+            if (indexes[i] == 0) {
+                throw new SQLException(format("The column %s is not in the result set", labels[i]));
+            }
+        }
+
+        return indexes;
+    }
+
+    /**
+     * Executes the query and streams the values of the ResultSet lazily converting them with the row mapper
+     * <p>
+     * Note: the stream must be closed after use it, closing it closes the result set and the statement
+     *
+     * @param statement query ready to be executed
+     * @param mapper    resolves the columns and returns the parser of the rows
+     * @param <T>       Type of the object that is providing the row mapper
+     * @return A lazy stream of parsed results from the result set
+     */
+    public static <T> Stream<T> stream(PreparedStatement statement, RowMapper<T> mapper) {
+        ResultSet resultSet = null;
+        SqlThrowableFunction<ResultSet, T> parser;
+        try {
+            resultSet = statement.executeQuery();
+            parser = mapper.forResultSet(resultSet);
+        } catch (SQLException e) {
+            closeQuietly(resultSet);
+            closeQuietly(statement);
+            throw new SimpleSQLException(e);
+        }
+
+        ResultSet rows = resultSet;
+        Spliterator<T> spliterator = new Spliterators.AbstractSpliterator<T>(Long.MAX_VALUE,
+                Spliterator.ORDERED | Spliterator.NONNULL) {
+            @Override
+            public boolean tryAdvance(Consumer<? super T> action) {
+                try {
+                    if (!rows.next()) {
+                        return false;
+                    }
+                    action.accept(parser.apply(rows));
+                    return true;
+                } catch (SQLException e) {
+                    throw new SimpleSQLException(e);
+                }
+            }
+        };
+
+        return StreamSupport.stream(spliterator, false).onClose(() -> {
+            closeQuietly(rows);
+            closeQuietly(statement);
+        });
+    }
+
+    /**
+     * Closes a JDBC resource printing the exception if it fails
+     *
+     * @param closeable resource to close, may be null
+     */
+    public static void closeQuietly(AutoCloseable closeable) {
+        if (closeable == null) {
+            return;
+        }
+
+        try {
+            closeable.close();
+        } catch (SQLException e) {
+            printSQLException(e);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Builds the list of parameter placeholders for an IN clause
+     *
+     * @param size amount of parameters
+     * @return A string like "?, ?, ?"
+     */
+    public static String placeholders(int size) {
+        StringBuilder builder = new StringBuilder(size * 3);
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append('?');
+        }
+        return builder.toString();
+    }
+
     /**
      * Asserts that at last one element was inserted
      *
@@ -120,6 +384,97 @@ public abstract class JDBCUtils {
         }
     }
 
+    /**
+     * Asserts that every element of a batch was inserted
+     * <p>
+     * Rows reported as Statement.SUCCESS_NO_INFO (e.g. rewritten batches) are accepted
+     *
+     * @param affectedRows amount of rows affected by each element of the batch
+     * @throws SQLException If no row was affected by any element
+     */
+    public static void assetBatchInsert(int[] affectedRows) throws SQLException {
+        for (int affected : affectedRows) {
+            if (affected != Statement.SUCCESS_NO_INFO) {
+                assetInsert(affected);
+            }
+        }
+    }
+
+    /**
+     * Binds and executes the values as JDBC batches of at most batchSize elements
+     * <p>
+     * If a keys consumer is provided, after each batch the generated keys are read in the same order
+     * than the values, so the statement must be prepared with Statement.RETURN_GENERATED_KEYS
+     *
+     * @param statement    statement to execute
+     * @param values       values to bind, one element of the batch for each value
+     * @param batchSize    max amount of elements sent in a batch
+     * @param binder       binds a value into the statement parameters
+     * @param keysConsumer receives each value with the result set positioned on his generated key, may be null
+     * @param <T>          Type of the values
+     * @return amount of rows affected by each value
+     * @throws SQLException If any batch fails or no generated key was found for a value
+     */
+    public static <T> int[] executeBatch(PreparedStatement statement, Collection<T> values, int batchSize,
+                                         SqlThrowableBiConsumer<PreparedStatement, T> binder,
+                                         SqlThrowableBiConsumer<T, ResultSet> keysConsumer) throws SQLException {
+        int[] affectedRows = new int[values.size()];
+        List<T> batch = new ArrayList<>(Math.min(batchSize, values.size()));
+        int executed = 0;
+
+        try {
+            for (T value : values) {
+                binder.accept(statement, value);
+                statement.addBatch();
+                batch.add(value);
+
+                if (batch.size() == batchSize) {
+                    executed += flushBatch(statement, batch, keysConsumer, affectedRows, executed);
+                }
+            }
+
+            if (!batch.isEmpty()) {
+                flushBatch(statement, batch, keysConsumer, affectedRows, executed);
+            }
+        } catch (SQLException | RuntimeException e) {
+            // A cached statement must not run the values queued before the failure with his next batch
+            clearBatch(statement, e);
+            throw e;
+        }
+
+        return affectedRows;
+    }
+
+    private static void clearBatch(PreparedStatement statement, Exception cause) {
+        try {
+            statement.clearBatch();
+        } catch (SQLException e) {
+            cause.addSuppressed(e);
+        }
+    }
+
+    private static <T> int flushBatch(PreparedStatement statement, List<T> batch,
+                                      SqlThrowableBiConsumer<T, ResultSet> keysConsumer,
+                                      int[] affectedRows, int offset) throws SQLException {
+        int[] batchAffectedRows = statement.executeBatch();
+        System.arraycopy(batchAffectedRows, 0, affectedRows, offset, batchAffectedRows.length);
+
+        if (keysConsumer != null) {
+            try (ResultSet generatedKeys = statement.getGeneratedKeys()) {
+                for (T value : batch) {
+                    if (!generatedKeys.next()) {
+                        throw new SQLException("Creating user failed, no ID obtained.");
+                    }
+                    keysConsumer.accept(value, generatedKeys);
+                }
+            }
+        }
+
+        int flushed = batch.size();
+        batch.clear();
+        return flushed;
+    }
+
     /**
      * Fetch the last insert id from statement and converts the ResultSet with the parser function
      * <p>
@@ -259,4 +614,69 @@ public abstract class JDBCUtils {
         return properties;
     }
 
+    // Lazy holder so the pool is only created when the first session is opened
+    private static class PoolHolder {
+        private static final ConnectionPool POOL = buildConnectionPool(JDBCUtils::openConnection);
+
+        static {
+            Runtime.getRuntime().addShutdownHook(new Thread(POOL::close, "jdbc-pool-shutdown"));
+        }
+    }
+
+    // Lazy holder so the replica pools are only created when the first session is opened
+    private static class ReplicaHolder {
+        private static final ReplicaRouter ROUTER = buildReplicaRouter();
+
+        static {
+            Runtime.getRuntime().addShutdownHook(new Thread(ROUTER::close, "jdbc-replicas-shutdown"));
+        }
+
+        private static ReplicaRouter buildReplicaRouter() {
+            String user = getProperty(JDBC_REPLICAS_USER, properties.getProperty(JDBC_USER));
+            String pass = getProperty(JDBC_REPLICAS_PASS, properties.getProperty(JDBC_PASS));
+
+            List<ConnectionPool> replicas = new ArrayList<>();
+            for (String url : getProperty(JDBC_REPLICAS, "").split(",")) {
+                if (!url.trim().isEmpty()) {
+                    replicas.add(buildConnectionPool(() -> openConnection(url.trim(), user, pass)));
+                }
+            }
+
+            return new ReplicaRouter(replicas,
+                    ReplicaRouter.Balancing.valueOf(getProperty(JDBC_REPLICAS_BALANCING, "ROUND_ROBIN").toUpperCase()),
+                    Boolean.parseBoolean(getProperty(JDBC_REPLICAS_READ_YOUR_WRITES, "true")));
+        }
+    }
+
+    // Lazy holder so the shard pools are only created when the router is first used
+    private static class ShardHolder {
+        private static final ShardRouter ROUTER = buildShardRouter();
+
+        static {
+            Runtime.getRuntime().addShutdownHook(new Thread(ROUTER::close, "jdbc-shards-shutdown"));
+        }
+
+        private static ShardRouter buildShardRouter() {
+            String user = getProperty(JDBC_SHARDS_USER, properties.getProperty(JDBC_USER));
+            String pass = getProperty(JDBC_SHARDS_PASS, properties.getProperty(JDBC_PASS));
+
+            List<ConnectionPool> shards = new ArrayList<>();
+            for (String url : getProperty(JDBC_SHARDS, "").split(",")) {
+                if (!url.trim().isEmpty()) {
+                    shards.add(buildConnectionPool(() -> openConnection(url.trim(), user, pass)));
+                }
+            }
+
+            List<Integer> rangeStarts = new ArrayList<>();
+            for (String start : getProperty(JDBC_SHARDS_RANGES, "").split(",")) {
+                if (!start.trim().isEmpty()) {
+                    rangeStarts.add(Integer.parseInt(start.trim()));
+                }
+            }
+
+            return new ShardRouter(shards,
+                    ShardRouter.Strategy.valueOf(getProperty(JDBC_SHARDS_STRATEGY, "HASH").toUpperCase()),
+                    rangeStarts);
+        }
+    }
 }
@@ -0,0 +1,55 @@
+package example.jdbc;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Physical connection managed by a ConnectionPool together with the bookkeeping the pool needs
+ * to decide if the connection can be reused
+ */
+public final class PooledConnection {
+
+    private final Connection connection;
+    private final long createdAt;
+    private final int defaultIsolation;
+    private volatile long lastUsedAt;
+
+    PooledConnection(Connection connection) {
+        this.connection = connection;
+        this.createdAt = System.currentTimeMillis();
+        this.lastUsedAt = createdAt;
+
+        try {
+            this.defaultIsolation = connection.getTransactionIsolation();
+        } catch (SQLException e) {
+            throw new SimpleSQLException(e);
+        }
+    }
+
+    /**
+     * Retrieves the JDBC connection
+     * <p>
+     * Note: the caller must not close it, the connection must be returned to the pool
+     *
+     * @return JDBC connection
+     */
+    public Connection getConnection() {
+        return connection;
+    }
+
+    int getDefaultIsolation() {
+        return defaultIsolation;
+    }
+
+    void touch() {
+        lastUsedAt = System.currentTimeMillis();
+    }
+
+    long idleMillis(long now) {
+        return now - lastUsedAt;
+    }
+
+    boolean isExpired(long now, long maxLifetimeMs) {
+        return maxLifetimeMs > 0 && now - createdAt >= maxLifetimeMs;
+    }
+}
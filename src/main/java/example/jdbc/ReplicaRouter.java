@@ -0,0 +1,77 @@
+package example.jdbc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Chooses the read replica of the read only work of the sessions.
+ * <p>
+ * With ROUND_ROBIN the replicas are used in turns, with LEAST_IN_FLIGHT the replica with less borrowed
+ * connections is chosen, so a slow replica receives less work. In both cases the other replicas are
+ * returned after the chosen one to try them if it fails.
+ */
+final class ReplicaRouter implements AutoCloseable {
+
+    enum Balancing {
+        ROUND_ROBIN, LEAST_IN_FLIGHT
+    }
+
+    private final List<ConnectionPool> replicas;
+    private final Balancing balancing;
+    private final boolean readYourWrites;
+    private final AtomicInteger next = new AtomicInteger();
+
+    ReplicaRouter(List<ConnectionPool> replicas, Balancing balancing, boolean readYourWrites) {
+        this.replicas = Collections.unmodifiableList(new ArrayList<>(replicas));
+        this.balancing = balancing;
+        this.readYourWrites = readYourWrites;
+    }
+
+    boolean hasReplicas() {
+        return !replicas.isEmpty();
+    }
+
+    /**
+     * Indicates if a session must read from the primary after writing, so it reads his own writes
+     * even if the replicas are lagging
+     */
+    boolean isReadYourWrites() {
+        return readYourWrites;
+    }
+
+    /**
+     * Gets the replicas in the order they must be tried, the chosen by the balancing first
+     */
+    List<ConnectionPool> candidates() {
+        int size = replicas.size();
+        if (size <= 1) {
+            return replicas;
+        }
+
+        int first = Math.floorMod(next.getAndIncrement(), size);
+        if (balancing == Balancing.LEAST_IN_FLIGHT) {
+            // Starts from the round robin position so the ties are spread between the replicas
+            int best = first;
+            for (int i = 1; i < size; i++) {
+                int index = (first + i) % size;
+                if (replicas.get(index).getActiveCount() < replicas.get(best).getActiveCount()) {
+                    best = index;
+                }
+            }
+            first = best;
+        }
+
+        List<ConnectionPool> candidates = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            candidates.add(replicas.get((first + i) % size));
+        }
+        return candidates;
+    }
+
+    @Override
+    public void close() {
+        replicas.forEach(ConnectionPool::close);
+    }
+}
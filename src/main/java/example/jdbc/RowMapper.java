@@ -0,0 +1,19 @@
+package example.jdbc;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Maps the rows of a result set resolving his columns only once per result set
+ * <p>
+ * The implementations look up the index of the columns from the result set metadata and return a
+ * parser that reads every row by index instead of by name.
+ *
+ * @param <T> Type of the object built from each row
+ */
+@FunctionalInterface
+public interface RowMapper<T> {
+
+    SqlThrowableFunction<ResultSet, T> forResultSet(ResultSet resultSet) throws SQLException;
+
+}
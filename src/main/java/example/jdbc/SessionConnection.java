@@ -0,0 +1,49 @@
+package example.jdbc;
+
+import example.jdbc.metrics.JDBCMetrics;
+
+import java.sql.Connection;
+
+/**
+ * Connection borrowed by a session from a pool, the primary or a replica, with his statement cache
+ */
+final class SessionConnection implements AutoCloseable {
+
+    private final ConnectionPool pool;
+    private final PooledConnection pooledConnection;
+    private final Connection connection;
+    private final StatementCache statementCache;
+
+    /**
+     * Borrows a connection from the pool
+     *
+     * @param pool               pool to borrow the connection
+     * @param statementCacheSize max amount of statements cached for the connection
+     */
+    SessionConnection(ConnectionPool pool, int statementCacheSize) {
+        this.pool = pool;
+        this.pooledConnection = pool.borrow();
+        this.connection = JDBCMetrics.get().monitor(pooledConnection.getConnection());
+        this.statementCache = new StatementCache(connection, statementCacheSize);
+    }
+
+    Connection getConnection() {
+        return connection;
+    }
+
+    StatementCache getStatementCache() {
+        return statementCache;
+    }
+
+    /**
+     * Closes the cached statements and returns the connection to the pool
+     */
+    @Override
+    public void close() {
+        try {
+            statementCache.close();
+        } finally {
+            pool.release(pooledConnection);
+        }
+    }
+}
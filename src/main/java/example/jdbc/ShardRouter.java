@@ -0,0 +1,101 @@
+package example.jdbc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.lang.String.format;
+
+/**
+ * Routes the user data to his shard by idUser, the addresses and contacts of a user live in his shard.
+ * <p>
+ * With HASH the shard of an id is (id - 1) % shards, the ids stay unique configuring the auto increment
+ * of the shard i (from 0) with auto_increment_increment = shards and auto_increment_offset = i + 1, so
+ * every shard generates only his own ids. With RANGE each shard owns the ids from his start, defined in
+ * jdbc.shards.ranges, to the start of the next one, so the auto increment of each shard must begin at
+ * his start.
+ * <p>
+ * The new users are spread in turns between the shards.
+ */
+public final class ShardRouter implements AutoCloseable {
+
+    public enum Strategy {
+        HASH, RANGE
+    }
+
+    private final List<ConnectionPool> shards;
+    private final Strategy strategy;
+    private final NavigableMap<Integer, Integer> rangeStarts = new TreeMap<>();
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * Creates a new router
+     *
+     * @param shards      pool of each shard
+     * @param strategy    how the ids are mapped to the shards
+     * @param rangeStarts first id of each shard, only for RANGE
+     */
+    ShardRouter(List<ConnectionPool> shards, Strategy strategy, List<Integer> rangeStarts) {
+        this.shards = Collections.unmodifiableList(new ArrayList<>(shards));
+        this.strategy = strategy;
+
+        if (strategy == Strategy.RANGE && !shards.isEmpty()) {
+            if (rangeStarts.size() != shards.size()) {
+                throw new IllegalArgumentException(format("There are %d shards but %d ranges",
+                        shards.size(), rangeStarts.size()));
+            }
+            for (int i = 0; i < rangeStarts.size(); i++) {
+                this.rangeStarts.put(rangeStarts.get(i), i);
+            }
+        }
+    }
+
+    /**
+     * Indicates if there are shards configured, otherwise all the data is in the primary
+     */
+    public boolean isSharded() {
+        return !shards.isEmpty();
+    }
+
+    public int getShardCount() {
+        return shards.size();
+    }
+
+    /**
+     * Gets the shard that owns an id
+     *
+     * @param id id of a user, or of an address as they are generated the same way
+     * @return The index of the shard
+     */
+    public int shardFor(int id) {
+        if (strategy == Strategy.HASH) {
+            return Math.floorMod(id - 1, shards.size());
+        }
+
+        Map.Entry<Integer, Integer> range = rangeStarts.floorEntry(id);
+        if (range == null) {
+            throw new IllegalArgumentException(format("The id %d is before the range of the first shard", id));
+        }
+        return range.getValue();
+    }
+
+    /**
+     * Gets the shard where a new user must be saved
+     */
+    public int shardForNew() {
+        return Math.floorMod(next.getAndIncrement(), shards.size());
+    }
+
+    ConnectionPool getPool(int shard) {
+        return shards.get(shard);
+    }
+
+    @Override
+    public void close() {
+        shards.forEach(ConnectionPool::close);
+    }
+}
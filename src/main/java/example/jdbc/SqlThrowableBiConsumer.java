@@ -0,0 +1,16 @@
+package example.jdbc;
+
+import java.sql.SQLException;
+
+/**
+ * Consumer of two arguments that expects a SQLException
+ *
+ * @param <T> Type of the first argument of the consumer
+ * @param <U> Type of the second argument of the consumer
+ */
+@FunctionalInterface
+public interface SqlThrowableBiConsumer<T, U> {
+
+    void accept(T t, U u) throws SQLException;
+
+}
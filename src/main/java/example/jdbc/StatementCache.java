@@ -0,0 +1,119 @@
+package example.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Bounded LRU cache of prepared statements of a connection.
+ * <p>
+ * The statements are keyed by the SQL text and the generated keys flag and are closed when they are
+ * evicted or when the cache is closed. As the connection, the cache is not thread safe.
+ * <p>
+ * Be aware that executing again a cached statement closes its previous result set, so a result set
+ * must be consumed before preparing the next statement.
+ */
+public class StatementCache implements AutoCloseable {
+
+    private final Connection connection;
+    private final int maxSize;
+    private final Map<Key, PreparedStatement> statements;
+
+    private long hits = 0;
+    private long misses = 0;
+
+    public StatementCache(Connection connection, int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("The statement cache size must be at least 1");
+        }
+
+        this.connection = connection;
+        this.maxSize = maxSize;
+        this.statements = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Retrieves the cached statement for the SQL or prepares a new one
+     * <p>
+     * Note: the caller must not close the statement, it is closed with the cache
+     *
+     * @param sql               SQL of the statement
+     * @param autoGeneratedKeys Statement.RETURN_GENERATED_KEYS or Statement.NO_GENERATED_KEYS
+     * @return A prepared statement ready to bind the parameters
+     * @throws SQLException If the statement could not be prepared
+     */
+    public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+        Key key = new Key(sql, autoGeneratedKeys);
+        PreparedStatement statement = statements.get(key);
+
+        if (statement != null && !statement.isClosed()) {
+            hits++;
+            statement.clearParameters();
+            return statement;
+        }
+
+        misses++;
+        statement = connection.prepareStatement(sql, autoGeneratedKeys);
+        statements.put(key, statement);
+        evict();
+
+        return statement;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public int size() {
+        return statements.size();
+    }
+
+    /**
+     * Closes all the cached statements
+     */
+    @Override
+    public void close() {
+        statements.values().forEach(JDBCUtils::closeQuietly);
+        statements.clear();
+    }
+
+    private void evict() {
+        Iterator<PreparedStatement> iterator = statements.values().iterator();
+
+        while (statements.size() > maxSize && iterator.hasNext()) {
+            JDBCUtils.closeQuietly(iterator.next());
+            iterator.remove();
+        }
+    }
+
+    private static final class Key {
+        private final String sql;
+        private final int autoGeneratedKeys;
+
+        private Key(String sql, int autoGeneratedKeys) {
+            this.sql = sql;
+            this.autoGeneratedKeys = autoGeneratedKeys;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return autoGeneratedKeys == key.autoGeneratedKeys && sql.equals(key.sql);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(sql, autoGeneratedKeys);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package example.jdbc.mapping;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads and binds the values of the property types supported by the entity mappings
+ */
+enum ColumnType {
+
+    STRING(Types.VARCHAR) {
+        @Override
+        Object read(ResultSet resultSet, int column) throws SQLException {
+            return resultSet.getString(column);
+        }
+
+        @Override
+        void bind(PreparedStatement statement, int parameter, Object value) throws SQLException {
+            statement.setString(parameter, (String) value);
+        }
+    },
+    INTEGER(Types.INTEGER) {
+        @Override
+        Object read(ResultSet resultSet, int column) throws SQLException {
+            int value = resultSet.getInt(column);
+            return resultSet.wasNull() ? null : value;
+        }
+
+        @Override
+        void bind(PreparedStatement statement, int parameter, Object value) throws SQLException {
+            statement.setInt(parameter, (Integer) value);
+        }
+    },
+    LONG(Types.BIGINT) {
+        @Override
+        Object read(ResultSet resultSet, int column) throws SQLException {
+            long value = resultSet.getLong(column);
+            return resultSet.wasNull() ? null : value;
+        }
+
+        @Override
+        void bind(PreparedStatement statement, int parameter, Object value) throws SQLException {
+            statement.setLong(parameter, (Long) value);
+        }
+    },
+    DOUBLE(Types.DOUBLE) {
+        @Override
+        Object read(ResultSet resultSet, int column) throws SQLException {
+            double value = resultSet.getDouble(column);
+            return resultSet.wasNull() ? null : value;
+        }
+
+        @Override
+        void bind(PreparedStatement statement, int parameter, Object value) throws SQLException {
+            statement.setDouble(parameter, (Double) value);
+        }
+    },
+    BOOLEAN(Types.BOOLEAN) {
+        @Override
+        Object read(ResultSet resultSet, int column) throws SQLException {
+            boolean value = resultSet.getBoolean(column);
+            return resultSet.wasNull() ? null : value;
+        }
+
+        @Override
+        void bind(PreparedStatement statement, int parameter, Object value) throws SQLException {
+            statement.setBoolean(parameter, (Boolean) value);
+        }
+    };
+
+    private static final Map<Class<?>, ColumnType> TYPES = new HashMap<>();
+
+    static {
+        TYPES.put(String.class, STRING);
+        TYPES.put(Integer.class, INTEGER);
+        TYPES.put(int.class, INTEGER);
+        TYPES.put(Long.class, LONG);
+        TYPES.put(long.class, LONG);
+        TYPES.put(Double.class, DOUBLE);
+        TYPES.put(double.class, DOUBLE);
+        TYPES.put(Boolean.class, BOOLEAN);
+        TYPES.put(boolean.class, BOOLEAN);
+    }
+
+    private final int sqlType;
+
+    ColumnType(int sqlType) {
+        this.sqlType = sqlType;
+    }
+
+    /**
+     * Gets the column type of a property type
+     *
+     * @return The column type or null if the property type is not supported
+     */
+    static ColumnType of(Class<?> propertyType) {
+        return TYPES.get(propertyType);
+    }
+
+    abstract Object read(ResultSet resultSet, int column) throws SQLException;
+
+    abstract void bind(PreparedStatement statement, int parameter, Object value) throws SQLException;
+
+    /**
+     * Binds the value or a SQL NULL if the value is null
+     */
+    void bindNullable(PreparedStatement statement, int parameter, Object value) throws SQLException {
+        if (value == null) {
+            statement.setNull(parameter, sqlType);
+        } else {
+            bind(statement, parameter, value);
+        }
+    }
+}
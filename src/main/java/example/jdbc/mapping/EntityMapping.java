@@ -0,0 +1,202 @@
+package example.jdbc.mapping;
+
+import example.jdbc.JDBCSession;
+import example.jdbc.JDBCUtils;
+import example.jdbc.RowMapper;
+
+import java.beans.BeanInfo;
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static java.lang.String.format;
+
+/**
+ * Mapping between an entity class and his table derived from the class by convention:
+ * <ul>
+ * <li>The table is the simple name of the class in lower case, e.g. User to user</li>
+ * <li>The id is the Integer property id and his column is id plus the simple name, e.g. idUser</li>
+ * <li>Every other property with getter, setter and a simple type (String, numbers and booleans) is
+ * a column with the same name. Associations and collections are ignored</li>
+ * </ul>
+ * The mapping is built once per class and cached for the lifetime of the JVM, the accessors and the
+ * constructor are compiled with the LambdaMetafactory so there is no reflection per row.
+ *
+ * @param <T> Type of the entity
+ */
+public final class EntityMapping<T> {
+
+    private static final ClassValue<EntityMapping<?>> mappings = new ClassValue<EntityMapping<?>>() {
+        @Override
+        protected EntityMapping<?> computeValue(Class<?> type) {
+            return new EntityMapping<>(type);
+        }
+    };
+
+    private final Class<T> type;
+    private final String table;
+    private final PropertyMapping<T> id;
+    private final List<PropertyMapping<T>> properties;
+    private final List<String> columns;
+    private final Supplier<T> constructor;
+
+    private EntityMapping(Class<T> type) {
+        this.type = type;
+        this.table = type.getSimpleName().toLowerCase();
+        this.constructor = compileConstructor(type);
+
+        PropertyMapping<T> id = null;
+        List<PropertyMapping<T>> properties = new ArrayList<>();
+        List<String> columns = new ArrayList<>();
+
+        for (PropertyDescriptor descriptor : getPropertyDescriptors(type)) {
+            if (descriptor.getReadMethod() == null || descriptor.getWriteMethod() == null
+                    || ColumnType.of(descriptor.getPropertyType()) == null) {
+                continue;
+            }
+
+            if (descriptor.getName().equals("id")) {
+                id = new PropertyMapping<>("id" + type.getSimpleName(), descriptor.getPropertyType(),
+                        descriptor.getReadMethod(), descriptor.getWriteMethod());
+            } else {
+                properties.add(new PropertyMapping<>(descriptor.getName(), descriptor.getPropertyType(),
+                        descriptor.getReadMethod(), descriptor.getWriteMethod()));
+                columns.add(descriptor.getName());
+            }
+        }
+
+        if (id == null) {
+            throw new IllegalArgumentException(format("The entity %s has no id property", type.getName()));
+        }
+
+        this.id = id;
+        this.properties = Collections.unmodifiableList(properties);
+        this.columns = Collections.unmodifiableList(columns);
+    }
+
+    /**
+     * Gets the mapping of an entity class, it is built on the first call
+     *
+     * @param type class of the entity
+     * @return The mapping of the entity
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> EntityMapping<T> of(Class<T> type) {
+        return (EntityMapping<T>) mappings.get(type);
+    }
+
+    public Class<T> getType() {
+        return type;
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    public String getIdColumn() {
+        return id.getColumn();
+    }
+
+    /**
+     * Columns of the entity without the id, in the order they are bound
+     */
+    public List<String> getColumns() {
+        return columns;
+    }
+
+    public Integer getId(T entity) {
+        return (Integer) id.get(entity);
+    }
+
+    public void setId(T entity, Integer value) {
+        id.set(entity, value);
+    }
+
+    /**
+     * Binds the columns of the entity without the id
+     *
+     * @param statement      statement to bind
+     * @param entity         entity with the values
+     * @param firstParameter index of the first parameter to bind
+     * @return The index of the next parameter after the columns
+     */
+    public int bindColumns(PreparedStatement statement, T entity, int firstParameter) throws SQLException {
+        int parameter = firstParameter;
+        for (PropertyMapping<T> property : properties) {
+            property.bind(entity, statement, parameter++);
+        }
+        return parameter;
+    }
+
+    /**
+     * Row mapper that resolves the columns of the entity once per result set and builds an entity
+     * for each row.
+     * <p>
+     * If the entity was already loaded by the session the same instance is returned. Without session,
+     * e.g. reading the partitions of a parallel stream, every row is a new entity
+     *
+     * @param sessionSupplier gets the session of the Dao for each result set, it may return null
+     * @param register        indicates if the new entities must be registered in the session
+     */
+    public RowMapper<T> rowMapper(Supplier<JDBCSession> sessionSupplier, boolean register) {
+        return resultSet -> {
+            int idColumn = JDBCUtils.columnIndexes(resultSet, id.getColumn())[0];
+            int[] propertyColumns = JDBCUtils.columnIndexes(resultSet, columns.toArray(new String[0]));
+            JDBCSession session = sessionSupplier.get();
+
+            return rs -> {
+                Integer entityId = (Integer) ColumnType.INTEGER.read(rs, idColumn);
+
+                T known = session == null ? null : session.getEntity(type, entityId);
+                if (known != null) {
+                    return known;
+                }
+
+                T entity = constructor.get();
+                id.set(entity, entityId);
+                for (int i = 0; i < propertyColumns.length; i++) {
+                    properties.get(i).read(entity, rs, propertyColumns[i]);
+                }
+                return register && session != null ? session.registerEntity(type, entityId, entity) : entity;
+            };
+        };
+    }
+
+    private static PropertyDescriptor[] getPropertyDescriptors(Class<?> type) {
+        try {
+            BeanInfo beanInfo = Introspector.getBeanInfo(type, Object.class);
+            return beanInfo.getPropertyDescriptors();
+        } catch (IntrospectionException e) {
+            throw new IllegalArgumentException(format("The entity %s is not a bean", type.getName()), e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Supplier<T> compileConstructor(Class<T> type) {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            MethodHandle handle = lookup.findConstructor(type, MethodType.methodType(void.class));
+            CallSite site = LambdaMetafactory.metafactory(lookup, "get",
+                    MethodType.methodType(Supplier.class),
+                    MethodType.methodType(Object.class),
+                    handle,
+                    MethodType.methodType(type));
+            return (Supplier<T>) site.getTarget().invoke();
+        } catch (Throwable e) {
+            throw new IllegalArgumentException(
+                    format("The entity %s needs a public constructor without arguments", type.getName()), e);
+        }
+    }
+}
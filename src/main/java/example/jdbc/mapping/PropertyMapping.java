@@ -0,0 +1,101 @@
+package example.jdbc.mapping;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Mapping between a bean property and a column.
+ * <p>
+ * The getter and the setter are compiled once into lambdas with the LambdaMetafactory, so reading or
+ * writing the property costs the same as calling the accessor directly.
+ *
+ * @param <T> Type of the entity
+ */
+final class PropertyMapping<T> {
+
+    private final String column;
+    private final ColumnType columnType;
+    private final boolean primitive;
+    private final Function<T, Object> getter;
+    private final BiConsumer<T, Object> setter;
+
+    PropertyMapping(String column, Class<?> propertyType, Method getter, Method setter) {
+        this.column = column;
+        this.columnType = ColumnType.of(propertyType);
+        this.primitive = propertyType.isPrimitive();
+        this.getter = compileGetter(getter);
+        this.setter = compileSetter(setter);
+    }
+
+    String getColumn() {
+        return column;
+    }
+
+    Object get(T entity) {
+        return getter.apply(entity);
+    }
+
+    void set(T entity, Object value) {
+        // A primitive property keeps his default value for a SQL NULL
+        if (value != null || !primitive) {
+            setter.accept(entity, value);
+        }
+    }
+
+    void read(T entity, ResultSet resultSet, int column) throws SQLException {
+        set(entity, columnType.read(resultSet, column));
+    }
+
+    void bind(T entity, PreparedStatement statement, int parameter) throws SQLException {
+        columnType.bindNullable(statement, parameter, get(entity));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Function<T, Object> compileGetter(Method method) {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            MethodHandle handle = lookup.unreflect(method);
+            CallSite site = LambdaMetafactory.metafactory(lookup, "apply",
+                    MethodType.methodType(Function.class),
+                    MethodType.methodType(Object.class, Object.class),
+                    handle,
+                    MethodType.methodType(box(method.getReturnType()), method.getDeclaringClass()));
+            return (Function<T, Object>) site.getTarget().invoke();
+        } catch (Throwable e) {
+            throw new IllegalStateException("The getter " + method + " can not be compiled", e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> BiConsumer<T, Object> compileSetter(Method method) {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            MethodHandle handle = lookup.unreflect(method);
+            CallSite site = LambdaMetafactory.metafactory(lookup, "accept",
+                    MethodType.methodType(BiConsumer.class),
+                    MethodType.methodType(void.class, Object.class, Object.class),
+                    handle,
+                    MethodType.methodType(void.class, method.getDeclaringClass(),
+                            box(method.getParameterTypes()[0])));
+            return (BiConsumer<T, Object>) site.getTarget().invoke();
+        } catch (Throwable e) {
+            throw new IllegalStateException("The setter " + method + " can not be compiled", e);
+        }
+    }
+
+    private static Class<?> box(Class<?> type) {
+        if (!type.isPrimitive()) {
+            return type;
+        }
+        return MethodType.methodType(type).wrap().returnType();
+    }
+}
@@ -0,0 +1,172 @@
+package example.jdbc.metrics;
+
+import example.jdbc.JDBCUtils;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of the sessions, transactions and statements executed through the JDBCSession.
+ * <p>
+ * When they are enabled, with the property jdbc.metrics.enabled or through JMX, the connection of each
+ * new session is wrapped to time every execution of his statements. When they are disabled the only
+ * cost is checking a flag when a session is opened.
+ * <p>
+ * All the counters are striped, so the threads of the sessions never wait for each other.
+ */
+public final class JDBCMetrics implements JDBCMetricsMBean {
+
+    private static final String METRICS_ENABLED = "jdbc.metrics.enabled";
+    private static final String OBJECT_NAME = "example.jdbc:type=JDBCMetrics";
+
+    private static final JDBCMetrics instance = new JDBCMetrics();
+
+    private volatile boolean enabled = Boolean.parseBoolean(JDBCUtils.getProperty(METRICS_ENABLED, "false"));
+
+    private final Map<String, QueryMetrics> queries = new ConcurrentHashMap<>();
+    private final LongAdder sessionsOpened = new LongAdder();
+    private final LongAdder sessionsInFlight = new LongAdder();
+    private final LongAdder commits = new LongAdder();
+    private final LongAdder rollbacks = new LongAdder();
+
+    private JDBCMetrics() {
+        register();
+    }
+
+    /**
+     * Gets the metrics shared by all the sessions
+     */
+    public static JDBCMetrics get() {
+        return instance;
+    }
+
+    /**
+     * Wraps the connection of a new session if the metrics or the slow query log are enabled, to collect
+     * the metrics of his statements and log the slow ones
+     *
+     * @param connection connection of the session
+     * @return The connection to use in the session
+     */
+    public Connection monitor(Connection connection) {
+        SlowQueryLog slowQueryLog = SlowQueryLog.get();
+        if (!isEnabled() && !slowQueryLog.isEnabled()) {
+            return connection;
+        }
+
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, new MonitoredConnection(connection, this, slowQueryLog));
+    }
+
+    public void sessionOpened() {
+        sessionsOpened.increment();
+        sessionsInFlight.increment();
+    }
+
+    public void sessionClosed() {
+        sessionsInFlight.decrement();
+    }
+
+    /**
+     * Gets the metrics of a SQL text
+     *
+     * @return The metrics or null if the SQL was not executed
+     */
+    public QueryMetrics getQuery(String sql) {
+        return queries.get(sql);
+    }
+
+    QueryMetrics query(String sql) {
+        QueryMetrics metrics = queries.get(sql);
+        return metrics != null ? metrics : queries.computeIfAbsent(sql, QueryMetrics::new);
+    }
+
+    void commit() {
+        commits.increment();
+    }
+
+    void rollback() {
+        rollbacks.increment();
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Override
+    public long getSessionsOpened() {
+        return sessionsOpened.sum();
+    }
+
+    @Override
+    public long getSessionsInFlight() {
+        return sessionsInFlight.sum();
+    }
+
+    @Override
+    public long getCommits() {
+        return commits.sum();
+    }
+
+    @Override
+    public long getRollbacks() {
+        return rollbacks.sum();
+    }
+
+    @Override
+    public long getExecutions() {
+        return queries.values().stream().mapToLong(QueryMetrics::getExecutions).sum();
+    }
+
+    @Override
+    public long getErrors() {
+        return queries.values().stream().mapToLong(QueryMetrics::getErrors).sum();
+    }
+
+    @Override
+    public String[] getQueries() {
+        return queries.values().stream()
+                .sorted(Comparator.comparingLong((QueryMetrics q) -> q.getLatency().getTotalNanos()).reversed())
+                .map(QueryMetrics::toString)
+                .toArray(String[]::new);
+    }
+
+    @Override
+    public double getLatencyPercentileMillis(String sql, double percentile) {
+        QueryMetrics metrics = queries.get(sql);
+        return metrics == null ? 0 : metrics.getLatency().getPercentileMillis(percentile);
+    }
+
+    @Override
+    public void reset() {
+        queries.values().forEach(QueryMetrics::reset);
+        sessionsOpened.reset();
+        commits.reset();
+        rollbacks.reset();
+    }
+
+    private void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+            }
+        } catch (JMException e) {
+            System.err.println("The JDBC metrics could not be registered in JMX: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package example.jdbc.metrics;
+
+/**
+ * Management interface of the JDBC metrics published through JMX as example.jdbc:type=JDBCMetrics
+ */
+public interface JDBCMetricsMBean {
+
+    boolean isEnabled();
+
+    /**
+     * Enables or disables the metrics of the sessions opened from now on
+     */
+    void setEnabled(boolean enabled);
+
+    long getSessionsOpened();
+
+    long getSessionsInFlight();
+
+    long getCommits();
+
+    long getRollbacks();
+
+    long getExecutions();
+
+    long getErrors();
+
+    /**
+     * Summary of the metrics of each SQL text sorted by the total time spent on it
+     */
+    String[] getQueries();
+
+    /**
+     * Gets a latency percentile of a SQL text
+     *
+     * @param sql        SQL text of the statement
+     * @param percentile percentage between 0 and 100
+     * @return The latency in milliseconds or 0 if the SQL was not executed
+     */
+    double getLatencyPercentileMillis(String sql, double percentile);
+
+    /**
+     * Removes all the collected metrics except the sessions in flight
+     */
+    void reset();
+}
@@ -0,0 +1,60 @@
+package example.jdbc.metrics;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+
+/**
+ * Connection wrapper that counts the commits and rollbacks and wraps the statements it creates to
+ * collect their metrics and log the slow ones
+ */
+final class MonitoredConnection implements InvocationHandler {
+
+    private final Connection connection;
+    private final JDBCMetrics metrics;
+    private final SlowQueryLog slowQueryLog;
+
+    MonitoredConnection(Connection connection, JDBCMetrics metrics, SlowQueryLog slowQueryLog) {
+        this.connection = connection;
+        this.metrics = metrics;
+        this.slowQueryLog = slowQueryLog;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        Object result;
+        try {
+            result = method.invoke(connection, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+
+        switch (method.getName()) {
+            case "commit":
+                if (metrics.isEnabled()) {
+                    metrics.commit();
+                }
+                return result;
+            case "rollback":
+                if (metrics.isEnabled()) {
+                    metrics.rollback();
+                }
+                return result;
+            case "prepareStatement":
+                return wrap(PreparedStatement.class, (Statement) result, (String) args[0]);
+            case "createStatement":
+                return wrap(Statement.class, (Statement) result, null);
+            default:
+                return result;
+        }
+    }
+
+    private Statement wrap(Class<? extends Statement> type, Statement statement, String sql) {
+        return (Statement) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                new MonitoredStatement(statement, sql, metrics, slowQueryLog));
+    }
+}
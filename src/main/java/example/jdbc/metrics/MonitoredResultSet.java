@@ -0,0 +1,68 @@
+package example.jdbc.metrics;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.ResultSet;
+
+/**
+ * Result set wrapper that counts the fetched rows. They are added to the metrics of the query, and to
+ * his slow query log entry if any, when the result set is exhausted or closed
+ */
+final class MonitoredResultSet implements InvocationHandler {
+
+    private final ResultSet resultSet;
+    private final QueryMetrics query;
+    private final SlowQueryLog.Entry entry;
+    private final SlowQueryLog slowQueryLog;
+    private long rows = 0;
+    private boolean finished = false;
+
+    /**
+     * @param query metrics of the query, null if the metrics are disabled
+     * @param entry entry of the slow query log, null if the execution is not logged
+     */
+    MonitoredResultSet(ResultSet resultSet, QueryMetrics query, SlowQueryLog.Entry entry,
+                       SlowQueryLog slowQueryLog) {
+        this.resultSet = resultSet;
+        this.query = query;
+        this.entry = entry;
+        this.slowQueryLog = slowQueryLog;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        Object result;
+        try {
+            result = method.invoke(resultSet, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+
+        if (method.getName().equals("next")) {
+            if ((Boolean) result) {
+                rows++;
+            } else {
+                finish();
+            }
+        } else if (method.getName().equals("close")) {
+            finish();
+        }
+        return result;
+    }
+
+    void finish() {
+        if (finished) {
+            return;
+        }
+
+        finished = true;
+        if (query != null) {
+            query.recordRows(rows);
+        }
+        if (entry != null) {
+            entry.setRows(rows);
+            slowQueryLog.submit(entry);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package example.jdbc.metrics;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Arrays;
+
+/**
+ * Statement wrapper that times his executions, counts the affected and fetched rows and, when the slow
+ * query log is enabled, keeps the bound parameters to log them
+ */
+final class MonitoredStatement implements InvocationHandler {
+
+    private static final Object[] NO_PARAMETERS = new Object[0];
+
+    private final Statement statement;
+    private final String sql;
+    private final JDBCMetrics metrics;
+    private final SlowQueryLog slowQueryLog;
+
+    private Object[] parameters = NO_PARAMETERS;
+    // Highest index bound, the array has spare room after it
+    private int parameterCount = 0;
+    private int batchSize = 0;
+    private MonitoredResultSet lastResultSet;
+
+    /**
+     * @param sql SQL of a prepared statement, null for plain statements that receive it on each execution
+     */
+    MonitoredStatement(Statement statement, String sql, JDBCMetrics metrics, SlowQueryLog slowQueryLog) {
+        this.statement = statement;
+        this.sql = sql;
+        this.metrics = metrics;
+        this.slowQueryLog = slowQueryLog;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String name = method.getName();
+
+        if (slowQueryLog.isEnabled()) {
+            if (method.getDeclaringClass() == PreparedStatement.class && name.startsWith("set")
+                    && args != null && args.length >= 2 && args[0] instanceof Integer) {
+                bindParameter((Integer) args[0], name.equals("setNull") ? null : args[1]);
+            } else if (name.equals("clearParameters")) {
+                parameters = NO_PARAMETERS;
+                parameterCount = 0;
+            } else if (name.equals("addBatch")) {
+                batchSize++;
+            } else if (name.equals("clearBatch")) {
+                batchSize = 0;
+            }
+        }
+
+        if (name.equals("close")) {
+            finishResultSet();
+        }
+
+        if (!name.startsWith("execute")) {
+            return invoke(method, args);
+        }
+
+        finishResultSet();
+        String executedSql = sql != null ? sql : String.valueOf(args == null ? null : args[0]);
+        QueryMetrics query = metrics.isEnabled() ? metrics.query(executedSql) : null;
+
+        long start = System.nanoTime();
+        Object result;
+        try {
+            result = invoke(method, args);
+        } catch (Throwable e) {
+            if (query != null) {
+                query.recordError(System.nanoTime() - start);
+            }
+            throw e;
+        }
+        long elapsed = System.nanoTime() - start;
+        long affectedRows = affectedRows(result);
+
+        if (query != null) {
+            query.recordExecution(elapsed, affectedRows);
+        }
+
+        SlowQueryLog.Entry entry = null;
+        if (slowQueryLog.isEnabled()) {
+            entry = slowQueryLog.newEntry(executedSql, elapsed,
+                    Arrays.copyOf(parameters, parameterCount), batchSize);
+        }
+        if (name.equals("executeBatch")) {
+            batchSize = 0;
+        }
+
+        if (result instanceof ResultSet) {
+            lastResultSet = new MonitoredResultSet((ResultSet) result, query, entry, slowQueryLog);
+            return Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[]{ResultSet.class},
+                    lastResultSet);
+        }
+
+        if (entry != null) {
+            entry.setRows(affectedRows);
+            slowQueryLog.submit(entry);
+        }
+        return result;
+    }
+
+    private Object invoke(Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(statement, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private void bindParameter(int index, Object value) {
+        if (index > parameters.length) {
+            parameters = Arrays.copyOf(parameters, Math.max(index, parameters.length * 2));
+        }
+        parameters[index - 1] = value;
+        parameterCount = Math.max(parameterCount, index);
+    }
+
+    /**
+     * Completes the metrics of the previous result set, it is closed by the driver when the statement is
+     * executed again or closed
+     */
+    private void finishResultSet() {
+        if (lastResultSet != null) {
+            lastResultSet.finish();
+            lastResultSet = null;
+        }
+    }
+
+    private static long affectedRows(Object result) {
+        if (result instanceof Integer || result instanceof Long) {
+            return ((Number) result).longValue();
+        }
+
+        long rows = 0;
+        if (result instanceof int[]) {
+            for (int count : (int[]) result) {
+                rows += Math.max(0, count);
+            }
+        } else if (result instanceof long[]) {
+            for (long count : (long[]) result) {
+                rows += Math.max(0, count);
+            }
+        }
+        return rows;
+    }
+}
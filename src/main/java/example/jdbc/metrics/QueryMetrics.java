@@ -0,0 +1,70 @@
+package example.jdbc.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of the executions of a SQL text
+ */
+public final class QueryMetrics {
+
+    private final String sql;
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder rows = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    QueryMetrics(String sql) {
+        this.sql = sql;
+    }
+
+    void recordExecution(long nanos, long affectedRows) {
+        latency.record(nanos);
+        if (affectedRows > 0) {
+            rows.add(affectedRows);
+        }
+    }
+
+    void recordError(long nanos) {
+        latency.record(nanos);
+        errors.increment();
+    }
+
+    void recordRows(long fetchedRows) {
+        rows.add(fetchedRows);
+    }
+
+    void reset() {
+        errors.reset();
+        rows.reset();
+        latency.reset();
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public long getExecutions() {
+        return latency.getCount();
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    /**
+     * Rows returned by the queries plus rows affected by the updates
+     */
+    public long getRows() {
+        return rows.sum();
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: executions=%d, errors=%d, rows=%d, mean=%.3fms, p50=%.3fms, p99=%.3fms, max=%.3fms",
+                sql, getExecutions(), getErrors(), getRows(), latency.getMeanMillis(),
+                latency.getPercentileMillis(50), latency.getPercentileMillis(99), latency.getMaxMillis());
+    }
+}
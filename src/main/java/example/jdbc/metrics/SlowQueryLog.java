@@ -0,0 +1,194 @@
+package example.jdbc.metrics;
+
+import example.jdbc.JDBCUtils;
+
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Log of the statements slower than jdbc.slowQuery.thresholdMs, plus a random sample of the other
+ * statements, jdbc.slowQuery.sampleRate, to compare them with a baseline.
+ * <p>
+ * Each entry has the SQL, the bound parameters, the rows, the elapsed time and the DAO method that
+ * executed the statement. The entries are written by a background thread from a bounded buffer, when
+ * the buffer is full the entries are dropped, so the threads of the queries never wait for the log.
+ */
+public final class SlowQueryLog {
+
+    private static final String THRESHOLD = "jdbc.slowQuery.thresholdMs";
+    private static final String SAMPLE_RATE = "jdbc.slowQuery.sampleRate";
+    private static final String BUFFER_SIZE = "jdbc.slowQuery.bufferSize";
+    private static final String FILE = "jdbc.slowQuery.file";
+    // Packages whose frames are skipped looking for the caller of a statement
+    private static final String[] INFRASTRUCTURE_PACKAGES = {"example.jdbc.", "java.", "javax.", "sun.", "jdk.",
+            "com.sun.", "example.dao.cache.", "example.dao.impl.AbstractDaoJdbc"};
+    private static final int MAX_VALUE_LENGTH = 100;
+
+    private static final SlowQueryLog instance = new SlowQueryLog();
+
+    private final long thresholdNanos;
+    private final double sampleRate;
+    private final BlockingQueue<Entry> buffer;
+    private final LongAdder dropped = new LongAdder();
+
+    private SlowQueryLog() {
+        long thresholdMs = JDBCUtils.getLongProperty(THRESHOLD, -1);
+        this.thresholdNanos = thresholdMs < 0 ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toNanos(thresholdMs);
+        this.sampleRate = Double.parseDouble(JDBCUtils.getProperty(SAMPLE_RATE, "0"));
+        this.buffer = new ArrayBlockingQueue<>(JDBCUtils.getIntProperty(BUFFER_SIZE, 1024));
+
+        if (isEnabled()) {
+            Thread writer = new Thread(() -> write(openOutput()), "jdbc-slow-query-log");
+            writer.setDaemon(true);
+            writer.start();
+        }
+    }
+
+    /**
+     * Gets the log shared by all the sessions
+     */
+    public static SlowQueryLog get() {
+        return instance;
+    }
+
+    /**
+     * Indicates if there is a threshold or a sample rate configured
+     */
+    public boolean isEnabled() {
+        return thresholdNanos != Long.MAX_VALUE || sampleRate > 0;
+    }
+
+    /**
+     * Amount of entries dropped because the buffer was full
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Decides if an execution must be logged, as slow or as sample, and creates his entry. The caller is
+     * resolved here, while the DAO method is still in the stack
+     *
+     * @return The entry to complete and submit or null if the execution is not logged
+     */
+    Entry newEntry(String sql, long elapsedNanos, Object[] parameters, int batchSize) {
+        boolean slow = elapsedNanos >= thresholdNanos;
+        if (!slow && (sampleRate <= 0 || ThreadLocalRandom.current().nextDouble() >= sampleRate)) {
+            return null;
+        }
+        return new Entry(slow, sql, elapsedNanos, parameters, batchSize, findCaller());
+    }
+
+    void submit(Entry entry) {
+        if (!buffer.offer(entry)) {
+            dropped.increment();
+        }
+    }
+
+    private void write(PrintStream out) {
+        try {
+            while (true) {
+                out.println(buffer.take());
+                if (buffer.isEmpty()) {
+                    out.flush();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static PrintStream openOutput() {
+        String file = JDBCUtils.getProperty(FILE, null);
+        if (file == null) {
+            return System.err;
+        }
+
+        try {
+            return new PrintStream(new FileOutputStream(file, true), false, "UTF-8");
+        } catch (FileNotFoundException | UnsupportedEncodingException e) {
+            System.err.printf("The slow query log %s could not be opened, using stderr: %s%n", file, e.getMessage());
+            return System.err;
+        }
+    }
+
+    private static String findCaller() {
+        for (StackTraceElement frame : Thread.currentThread().getStackTrace()) {
+            String className = frame.getClassName();
+            if (Arrays.stream(INFRASTRUCTURE_PACKAGES).noneMatch(className::startsWith)) {
+                return className + "." + frame.getMethodName();
+            }
+        }
+        return "unknown";
+    }
+
+    private static String format(Object value) {
+        if (value == null) {
+            return "NULL";
+        }
+        if (value instanceof byte[]) {
+            return "<" + ((byte[]) value).length + " bytes>";
+        }
+
+        String text = value.toString();
+        if (text.length() > MAX_VALUE_LENGTH) {
+            text = text.substring(0, MAX_VALUE_LENGTH) + "...";
+        }
+        return value instanceof CharSequence ? "'" + text + "'" : text;
+    }
+
+    /**
+     * Logged execution of a statement, the rows of a query are added when his result set is consumed
+     */
+    static final class Entry {
+        private final Instant timestamp = Instant.now();
+        private final boolean slow;
+        private final String sql;
+        private final long elapsedNanos;
+        private final Object[] parameters;
+        private final int batchSize;
+        private final String caller;
+        private long rows = 0;
+
+        private Entry(boolean slow, String sql, long elapsedNanos, Object[] parameters, int batchSize,
+                      String caller) {
+            this.slow = slow;
+            this.sql = sql;
+            this.elapsedNanos = elapsedNanos;
+            this.parameters = parameters;
+            this.batchSize = batchSize;
+            this.caller = caller;
+        }
+
+        void setRows(long rows) {
+            this.rows = rows;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder line = new StringBuilder()
+                    .append(timestamp).append(slow ? " SLOW " : " SAMPLE ")
+                    .append(String.format("%.3fms", elapsedNanos / 1_000_000.0))
+                    .append(" rows=").append(rows);
+            if (batchSize > 0) {
+                line.append(" batch=").append(batchSize);
+            }
+            line.append(" caller=").append(caller)
+                    .append(" sql=").append(sql)
+                    .append(" params=[");
+            for (int i = 0; i < parameters.length; i++) {
+                line.append(i == 0 ? "" : ", ").append(format(parameters[i]));
+            }
+            return line.append(']').toString();
+        }
+    }
+}
@@ -8,10 +8,21 @@ import java.util.*;
  */
 public class User implements Serializable {
 
+    // Bits of the properties for the changes tracking
+    public static final int NAME_PROPERTY = 1;
+    public static final int EMAIL_PROPERTY = 1 << 1;
+    public static final int ALL_PROPERTIES = NAME_PROPERTY | EMAIL_PROPERTY;
+
     private Integer id;
     private String name;
     private String email;
-    private Set<User> contacts = new HashSet<>();
+    // Null until they are set or read, if there is a loader they are loaded on the first read
+    private Set<User> contacts;
+    private transient Runnable contactsLoader;
+
+    // The changes are tracked once the user is loaded or saved, until then every property is a change
+    private transient boolean tracked;
+    private transient int changedProperties;
 
     public User() {
 
@@ -35,6 +46,9 @@ public class User implements Serializable {
     }
 
     public void setName(String name) {
+        if (!Objects.equals(this.name, name)) {
+            changedProperties |= NAME_PROPERTY;
+        }
         this.name = name;
     }
 
@@ -43,15 +57,75 @@ public class User implements Serializable {
     }
 
     public void setEmail(String email) {
+        if (!Objects.equals(this.email, email)) {
+            changedProperties |= EMAIL_PROPERTY;
+        }
         this.email = email;
     }
 
+    /**
+     * Gets the contacts of the user, the first read loads them if the user was loaded by a Dao.
+     * If the session that loaded the user is closed they are loaded with the session of the current
+     * thread, without any session it fails with an IllegalStateException
+     */
     public Set<User> getContacts() {
+        if (contactsLoader != null) {
+            // The loader sets the contacts of this user, and maybe of others loaded with him
+            contactsLoader.run();
+            contactsLoader = null;
+        }
+        if (contacts == null) {
+            contacts = new HashSet<>();
+        }
         return contacts;
     }
 
     public void setContacts(Set<User> contacts) {
         this.contacts = contacts;
+        this.contactsLoader = null;
+    }
+
+    /**
+     * Sets the code that loads the contacts on the first read of them, it must set them with setContacts.
+     * The contacts set before are discarded
+     */
+    public void setContactsLoader(Runnable contactsLoader) {
+        this.contacts = null;
+        this.contactsLoader = contactsLoader;
+    }
+
+    /**
+     * Indicates if reading the contacts doesn't need to load them
+     */
+    public boolean isContactsLoaded() {
+        return contactsLoader == null;
+    }
+
+    /**
+     * Bits of the properties changed since the user was loaded or saved, all of them if the user is not
+     * tracked yet
+     */
+    public int changedProperties() {
+        return tracked ? changedProperties : ALL_PROPERTIES;
+    }
+
+    /**
+     * Marks the properties as stored in the database and starts to track the changes of the user
+     *
+     * @param properties bits of the properties stored
+     */
+    public void clearChanges(int properties) {
+        tracked = true;
+        changedProperties &= ~properties;
+    }
+
+    /**
+     * Marks the properties as changed again, e.g. when the transaction that stored them is rolled back
+     *
+     * @param properties bits of the properties not stored
+     */
+    public void restoreChanges(int properties) {
+        changedProperties |= properties;
     }
 
     @Override
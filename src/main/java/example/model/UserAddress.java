@@ -8,10 +8,22 @@ import java.util.Objects;
  */
 public class UserAddress implements Serializable {
 
+    // Bits of the properties for the changes tracking, the user of an address doesn't change
+    public static final int ADDRESS_PROPERTY = 1;
+    public static final int ALL_PROPERTIES = ADDRESS_PROPERTY;
+
     private Integer id;
     private User user;
     private String address;
 
+    // Loads the user on the first read if the address was loaded by a Dao, until then only his id is known
+    private transient Runnable userLoader;
+    private transient Integer lazyUserId;
+
+    // The changes are tracked once the address is loaded or saved, until then every property is a change
+    private transient boolean tracked;
+    private transient int changedProperties;
+
     public UserAddress() {
 
     }
@@ -28,12 +40,50 @@ public class UserAddress implements Serializable {
         this.id = id;
     }
 
+    /**
+     * Gets the user of the address, the first read loads him if the address was loaded by a Dao.
+     * If the session that loaded the address is closed he is loaded with the session of the current
+     * thread, without any session it fails with an IllegalStateException
+     */
     public User getUser() {
+        if (userLoader != null) {
+            // The loader sets the user of this address, and maybe of others loaded with it
+            userLoader.run();
+            userLoader = null;
+        }
         return user;
     }
 
     public void setUser(User user) {
         this.user = user;
+        this.userLoader = null;
+        this.lazyUserId = null;
+    }
+
+    /**
+     * Gets the id of the user of the address without loading him
+     */
+    public Integer getUserId() {
+        return user != null ? user.getId() : lazyUserId;
+    }
+
+    /**
+     * Sets the code that loads the user on the first read of him, it must set him with setUser
+     *
+     * @param idUser     id of the user
+     * @param userLoader loads the user, null to only know his id
+     */
+    public void setUserLoader(Integer idUser, Runnable userLoader) {
+        this.user = null;
+        this.userLoader = userLoader;
+        this.lazyUserId = idUser;
+    }
+
+    /**
+     * Indicates if reading the user doesn't need to load him
+     */
+    public boolean isUserLoaded() {
+        return userLoader == null;
     }
 
     public String getAddress() {
@@ -41,9 +91,39 @@ public class UserAddress implements Serializable {
     }
 
     public void setAddress(String address) {
+        if (!Objects.equals(this.address, address)) {
+            changedProperties |= ADDRESS_PROPERTY;
+        }
         this.address = address;
     }
 
+    /**
+     * Bits of the properties changed since the address was loaded or saved, all of them if the address is
+     * not tracked yet
+     */
+    public int changedProperties() {
+        return tracked ? changedProperties : ALL_PROPERTIES;
+    }
+
+    /**
+     * Marks the properties as stored in the database and starts to track the changes of the address
+     *
+     * @param properties bits of the properties stored
+     */
+    public void clearChanges(int properties) {
+        tracked = true;
+        changedProperties &= ~properties;
+    }
+
+    /**
+     * Marks the properties as changed again, e.g. when the transaction that stored them is rolled back
+     *
+     * @param properties bits of the properties not stored
+     */
+    public void restoreChanges(int properties) {
+        changedProperties |= properties;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;